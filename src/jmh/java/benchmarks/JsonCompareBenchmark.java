@@ -0,0 +1,97 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.skyscreamer.jsonassert.JSONCompare;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+import org.skyscreamer.jsonassert.JSONCompareResult;
+import utilities.JsonComparator;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonComparator against JSONAssert on what the response validation steps do: a LENIENT comparison of two JSON
+ * strings whose arrays are in a different order and whose actual elements carry extra fields.
+ * Both sides include parsing the strings. Run with:
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=JsonCompareBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCompareBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({"10", "100", "1000"})
+    public int elements;
+
+    // "id": the elements have a unique id field, which JSONAssert uses to pair them in linear time.
+    // "composite": only a combination of fields is unique, so JSONAssert falls back to comparing all pairs.
+    @Param({"id", "composite"})
+    public String key;
+
+    private String expected;
+    private String actual;
+    private final JsonComparator comparator = new JsonComparator(JsonComparator.Mode.LENIENT, List.of("$..debug_id"));
+
+    @Setup
+    public void setUp() {
+        ObjectNode expectedRoot = MAPPER.createObjectNode();
+        ObjectNode actualRoot = MAPPER.createObjectNode();
+        ArrayNode expectedItems = expectedRoot.putArray("webhooks");
+        ArrayNode actualItems = actualRoot.putArray("webhooks");
+        for (int i = 0; i < elements; i++) {
+            ObjectNode item = item(expectedItems, i);
+            item.putArray("event_types").addObject().put("name", "PAYMENT.SALE.REFUNDED");
+        }
+        // Reverse order, with extra fields the expected document doesn't mention
+        for (int i = elements - 1; i >= 0; i--) {
+            ObjectNode item = item(actualItems, i).put("debug_id", Integer.toHexString(i));
+            item.putArray("event_types").addObject()
+                    .put("name", "PAYMENT.SALE.REFUNDED")
+                    .put("description", "A sale was refunded");
+            item.putArray("links").addObject().put("rel", "self");
+        }
+        expected = expectedRoot.toString();
+        actual = actualRoot.toString();
+    }
+
+    private ObjectNode item(ArrayNode items, int i) {
+        if (key.equals("id")) {
+            return items.addObject()
+                    .put("id", "WH-" + i)
+                    .put("url", "https://example.com/webhook/" + i);
+        }
+        return items.addObject()
+                .put("host", "example-" + i % 10 + ".com")
+                .put("path", "/webhook/" + i / 10);
+    }
+
+    @Benchmark
+    public List<JsonComparator.Difference> jsonComparator() throws IOException {
+        return comparator.compare(MAPPER.readTree(expected), MAPPER.readTree(actual));
+    }
+
+    @Benchmark
+    public JSONCompareResult jsonAssert() throws JSONException {
+        return JSONCompare.compareJSON(expected, actual, JSONCompareMode.LENIENT);
+    }
+}
@@ -2,9 +2,26 @@ package hooks;
 
 import io.cucumber.java.*;
 import manager.APIManager;
+import manager.APIRequestContextPool;
 import manager.BrowserManager;
+import manager.BrowserPool;
+import manager.NetworkReplay;
 import manager.PlaywrightManager;
+import manager.ScenarioHistory;
+import manager.ScenarioWatchdog;
+import manager.StorageStateCache;
+import pages.GithubLoginPage;
+import pages.LoginPage;
+import utilities.ArtifactWriter;
+import utilities.CircuitBreaker;
+import utilities.PaypalStubServer;
 import utilities.RESTUtils;
+import utilities.RateLimiter;
+import utilities.RunMetrics;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class Hooks {
 
@@ -12,34 +29,64 @@ public class Hooks {
     private final BrowserManager browserManager;
     private final APIManager apiManager;
     private final RESTUtils restUtils;
+    private final GithubLoginPage githubLoginPage;
+    private final LoginPage loginPage;
+    private final ScenarioWatchdog watchdog;
+
+    // Start time of the current scenario, for the scenario duration history
+    private long scenarioStartMillis;
 
     public Hooks(
             PlaywrightManager playwrightManager,
             BrowserManager browserManager,
             APIManager apiManager,
-            RESTUtils restUtils
+            RESTUtils restUtils,
+            GithubLoginPage githubLoginPage,
+            LoginPage loginPage,
+            ScenarioWatchdog watchdog
     ) {
         this.playwrightManager = playwrightManager;
         this.browserManager = browserManager;
         this.apiManager = apiManager;
         this.restUtils = restUtils;
+        this.githubLoginPage = githubLoginPage;
+        this.loginPage = loginPage;
+        this.watchdog = watchdog;
     }
 
     //Runs once before all tests start
     @BeforeAll
     public static void beforeAll() {
         System.out.println("\nExecuting test suite....");
+        // Hosts that are down before the run starts get an open circuit, so their scenarios are skipped fast
+        CircuitBreaker.preflight();
     }
 
     //Runs once after all tests are done
     @AfterAll
     public static void afterAll() {
+        // Pooled browsers and the API drivers of the worker threads live for the whole run, so they are closed only here
+        APIRequestContextPool.disposeAll();
+        PaypalStubServer.stop();
+        BrowserPool.shutdownAll();
+        PlaywrightManager.shutdownAll();
+        // All contexts are closed now, so their HAR recordings are complete
+        NetworkReplay.finish();
+        ScenarioHistory.save();
+        RateLimiter.report();
+        // Wait for the artifacts still being written, the reports link to them
+        ArtifactWriter.flush();
+        RunMetrics.writeReport();
         System.out.println("\nFinished executing the test suite!\n");
     }
 
     //Runs before each test
     @Before
     public void setup(Scenario scenario) {
+        scenarioStartMillis = System.currentTimeMillis();
+        // Hard time budget of the scenario, setup included
+        watchdog.start(scenario);
+
         // Log in which thread the scenario is running
         scenario.attach(
                 "This scenario runs in Thread ID: " + Thread.currentThread().threadId()
@@ -54,10 +101,34 @@ public class Hooks {
         if (isAPIOnly) {
             apiManager.setUp(scenario);
         } else {
-            browserManager.setUp(scenario);
+            browserManager.setUp(scenario, this::loginAs);
             // Optional: also set up API if it needs to have hybrid scenarios
             // apiManager.setUp(scenario);
         }
+        // Let the watchdog see the driver and page of this scenario
+        watchdog.track();
+    }
+
+    // Log in through the UI as the given role (only runs when the role's cached storage state is missing or expired)
+    private void loginAs(String role) {
+        StorageStateCache.Credentials credentials = browserManager.getStorageStateCache().credentials(role);
+        switch (credentials.site().toLowerCase()) {
+            case "github":
+                githubLoginPage.login(credentials.username(), credentials.password());
+                break;
+            case "webdriveruniversity":
+                loginPage.login(credentials.username(), credentials.password());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported login site for role '" + role + "': " + credentials.site());
+        }
+    }
+
+    //Runs after each step
+    @AfterStep
+    public void afterStep() {
+        // Start a new trace chunk per step, so that only the last few steps are kept (failure-only tracing)
+        browserManager.rotateTraceChunk();
     }
 
     //Runs after each test
@@ -65,26 +136,55 @@ public class Hooks {
     public void tearDown(Scenario scenario) {
         boolean isAPIOnly = scenario.getSourceTagNames().contains("@api");
 
+        // Diagnostics are best effort (the page may have crashed, or the watchdog closed the driver):
+        // the managers are torn down and the duration recorded even when they fail
         try {
             if (isAPIOnly) {
-                // Dispose the RESTUtils contexts first (if any)
-                restUtils.disposeContext();
-                // Then tear down the APIManager
-                apiManager.tearDown();
-                System.out.println("API test completed.");
+                // Release the RESTUtils context first (if any), it goes back to the worker's pool
+                restUtils.releaseContext();
             } else {
-                // Optional: if hybrid scenarios are used, dispose RESTUtils contexts first
-                // restUtils.disposeContext();
+                // Optional: if hybrid scenarios are used, release RESTUtils contexts first
+                // restUtils.releaseContext();
                 if (scenario.isFailed()) {
+                    // Written in the background; the report only links to them
                     byte[] screenshot = browserManager.takeScreenshot();
-                    scenario.attach(screenshot, "image/png", "📸 " + "screenshot");
+                    ArtifactWriter.attach(scenario, screenshot, "image/png", "📸 " + "screenshot");
+                    ArtifactWriter.attach(scenario, browserManager.getPageContent(), "text/html", "🧾 DOM snapshot");
+                }
+                if (browserManager.getNetworkStats() != null) {
+                    scenario.attach(browserManager.getNetworkStats().toString(), "text/plain", "🚫 Blocked requests");
+                }
+                // The trace of the last steps is only written for failed scenarios
+                List<Path> traces = browserManager.finishTracing(scenario.isFailed(), scenario.getName());
+                if (!traces.isEmpty()) {
+                    scenario.attach(traces.stream().map(path -> path.toAbsolutePath().toString())
+                                    .collect(Collectors.joining("\n", "Open with: mvn exec:java -e -Dexec.mainClass=com.microsoft.playwright.CLI"
+                                            + " -Dexec.args=\"show-trace <file>\"\n", "")),
+                            "text/plain", "🧭 Playwright trace");
                 }
-                browserManager.tearDown();
-                System.out.println("Web test completed.");
             }
         } finally {
-            // Always clean up the shared Playwright instance at the end of each scenario
-            playwrightManager.cleanup();
+            try {
+                if (isAPIOnly) {
+                    apiManager.tearDown();
+                    System.out.println("API test completed.");
+                } else {
+                    browserManager.tearDown();
+                    System.out.println("Web test completed.");
+                }
+                // The shared Playwright driver of this thread is kept alive for the next scenario
+            } finally {
+                // Record how long the scenario took, so the next run can start the longest scenarios first
+                ScenarioHistory.record(ScenarioHistory.key(scenario.getUri(), scenario.getLine()),
+                        scenarioStartMillis, System.currentTimeMillis());
+            }
         }
     }
+
+    //Runs after all other @After hooks (lowest order runs last), even if the teardown failed
+    @After(order = 0)
+    public void stopWatchdog(Scenario scenario) {
+        // Fails the scenario if it ran out of its time budget
+        watchdog.stop(scenario);
+    }
 }
@@ -1,24 +1,39 @@
 package manager;
 
 import com.microsoft.playwright.APIRequest;
+import com.microsoft.playwright.APIRequestContext;
 import com.microsoft.playwright.Playwright;
 import io.cucumber.java.Scenario;
+import utilities.CassetteTransport;
+import utilities.HttpTransport;
+import utilities.JdkHttpTransport;
 import utilities.JsonUtils;
+import utilities.PaypalStubServer;
+import utilities.PlaywrightTransport;
 
 import java.util.HashMap;
 import java.util.Map;
 
 public class APIManager {
 
+    // Classpath location of the API configuration YAML file.
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+
     // Dependency on PlaywrightManager to manage the Playwright instance.
     private final PlaywrightManager playwrightManager;
 
     // Represents a Playwright APIRequest for making API requests.
     private static final ThreadLocal<APIRequest> apiRequest = new ThreadLocal<>();
 
+    // Represents the HTTP transport used by RESTUtils for this thread.
+    private static final ThreadLocal<HttpTransport> transport = new ThreadLocal<>();
+
     // Represents the current Cucumber scenario for API tests.
     private static final ThreadLocal<Scenario> scenario = new ThreadLocal<>();
 
+    // Pool of reusable request contexts of this worker thread.
+    private final APIRequestContextPool contextPool = new APIRequestContextPool();
+
     // Represents a OAuthAPIHeaders from YAML file.
     //private Map<String, String> OAuthAPIHeaders = new HashMap<>();
     private static final ThreadLocal<Map<String, String>> OAuthAPIHeaders = ThreadLocal.withInitial(HashMap::new);
@@ -38,6 +53,9 @@ public class APIManager {
     // Represents a OAuthBodyForm from YAML file.
     private Map<String, Object> OAuthBodyForm = new HashMap<>();
 
+    // Represents a OAuthTokenCache config from YAML file.
+    private Map<String, Object> OAuthTokenCacheConfig = new HashMap<>();
+
     // Constructor with PlaywrightManager dependency injection.
     public APIManager(PlaywrightManager playwrightManager) {
         this.playwrightManager = playwrightManager;
@@ -45,22 +63,48 @@ public class APIManager {
 
     // Setup method to initialize the API properties before each API test scenario.
     public void setUp(Scenario scn) {
-        // Load API-related properties from a YAML file.
-        JsonUtils.loadYamlFile("properties/restconfig_properties.yml");
-        //OAuthAPIHeaders = JsonUtils.getHeaders("OAuthAPIHeaders");
-        OAuthAPIHeaders.set(JsonUtils.getHeaders("OAuthAPIHeaders"));
-        tranAPIHeaders = JsonUtils.getHeaders("tranAPIHeaders");
-        base = JsonUtils.getConfigContent("Base");
+        // Load API-related properties from a YAML file (parsed once per JVM, each scenario gets its own copy).
+        //OAuthAPIHeaders = JsonUtils.getHeaders(CONFIG_FILE, "OAuthAPIHeaders");
+        OAuthAPIHeaders.set(JsonUtils.getHeaders(CONFIG_FILE, "OAuthAPIHeaders"));
+        tranAPIHeaders = JsonUtils.getHeaders(CONFIG_FILE, "tranAPIHeaders");
+        base = JsonUtils.getConfigContent(CONFIG_FILE, "Base");
         timeout = Double.valueOf(base.get("timeout").toString());
-        OAuthSecrets = JsonUtils.getConfigContent("OAuthSecrets");
-        OAuthBodyForm = JsonUtils.getConfigContent("OAuthBodyForm");
+        OAuthSecrets = JsonUtils.getConfigContent(CONFIG_FILE, "OAuthSecrets");
+        OAuthBodyForm = JsonUtils.getConfigContent(CONFIG_FILE, "OAuthBodyForm");
+        OAuthTokenCacheConfig = JsonUtils.getConfigContent(CONFIG_FILE, "OAuthTokenCache");
+
+        // Replaying cassettes needs no transport (and no Playwright driver) at all
+        CassetteTransport.Mode cassetteMode = CassetteTransport.mode();
+        if (cassetteMode == CassetteTransport.Mode.REPLAY) {
+            transport.set(new CassetteTransport(null, cassetteMode, scn));
+            scenario.set(scn);
+            return;
+        }
 
-        // Set the shared Playwright instance from PlaywrightManager
-        playwrightManager.initialize();
-        Playwright pw = playwrightManager.getPlaywright();
+        // Select the HTTP transport: "playwright" (default) or "jdk" (java.net.http, no Playwright driver needed)
+        String transportType = System.getProperty("api.transport", "playwright").trim().toLowerCase();
+        switch (transportType) {
+            case "jdk":
+                transport.set(new JdkHttpTransport());
+                break;
+            case "playwright":
+                // Set the shared Playwright instance from PlaywrightManager
+                playwrightManager.initialize();
+                Playwright pw = playwrightManager.getPlaywright();
+
+                // Create a new APIRequest using Playwright and set it to the ThreadLocal variable
+                apiRequest.set(pw.request());
+                transport.set(new PlaywrightTransport(this));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported api.transport: " + transportType
+                        + ". Must be 'playwright' or 'jdk'.");
+        }
 
-        // Create a new APIRequest using Playwright and set it to the ThreadLocal variable
-        apiRequest.set(pw.request());
+        // Record the calls of the scenario to its cassette
+        if (cassetteMode == CassetteTransport.Mode.RECORD) {
+            transport.set(new CassetteTransport(transport.get(), cassetteMode, scn));
+        }
 
         // Store the scenario variable for using anywhere in the test
         scenario.set(scn);
@@ -71,6 +115,16 @@ public class APIManager {
         return apiRequest.get();
     }
 
+    // Getter for the HTTP transport used by RESTUtils.
+    public HttpTransport getTransport() {
+        return transport.get();
+    }
+
+    // Lease a reusable request context for the base URL and headers from the worker's pool.
+    public APIRequestContext leaseRequestContext(String baseURL, Map<String, String> headers) {
+        return contextPool.lease(apiRequest.get(), baseURL, timeout, headers);
+    }
+
     // Setter for APIRequest to be used in tests.
     /*public void setApiRequest(APIRequest apiReq) {
         apiRequest.set(apiReq);
@@ -94,14 +148,14 @@ public class APIManager {
         return tranAPIHeaders;
     }
 
-    // Getter to get OAuthBaseURL from Base config.
+    // Getter to get OAuthBaseURL from Base config (the local stub server's URL when it is stubbed).
     public String getOAuthBaseURL() {
-        return base.get("OAuthBaseURL").toString();
+        return PaypalStubServer.resolve(base.get("OAuthBaseURL").toString());
     }
 
-    // Getter to get tranBaseURL from Base config.
+    // Getter to get tranBaseURL from Base config (the local stub server's URL when it is stubbed).
     public String getTranBaseURL() {
-        return base.get("tranBaseURL").toString();
+        return PaypalStubServer.resolve(base.get("tranBaseURL").toString());
     }
 
     // Getter to get timeout value.
@@ -119,6 +173,11 @@ public class APIManager {
         return OAuthBodyForm;
     }
 
+    // Getter to get how long before expiry a cached OAuth token is refreshed, in milliseconds.
+    public long getOAuthTokenRefreshAheadMillis() {
+        return Long.parseLong(OAuthTokenCacheConfig.get("refreshAheadSeconds").toString()) * 1000;
+    }
+
     // Teardown method to clean up resources after each API test scenario.
     public void tearDown() {
         try {
@@ -132,10 +191,14 @@ public class APIManager {
             }
 
             // We don't dispose apiRequest – it's lightweight
-            // Contexts created from it should be disposed by the caller (RESTUtils)
+            // Contexts created from it are pooled and disposed once at the end of the run (APIRequestContextPool)
             if (apiRequest.get() != null) {
                 apiRequest.remove();
             }
+            if (transport.get() instanceof CassetteTransport cassette) {
+                cassette.save();
+            }
+            transport.remove();
         } catch (Exception e) {
             throw new RuntimeException("Error during API teardown", e);
         }
@@ -0,0 +1,82 @@
+package manager;
+
+import com.microsoft.playwright.APIRequest;
+import com.microsoft.playwright.APIRequestContext;
+import utilities.RunMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reuses APIRequestContexts (and with them their keep-alive connections) across steps and scenarios.
+ * Contexts are keyed by base URL, timeout and extra headers; resource paths are passed per request.
+ * Like the Playwright driver, contexts belong to one worker thread, so each worker has its own pool.
+ * Every context is disposed exactly once, at the end of the run.
+ */
+public class APIRequestContextPool {
+
+    private static final Logger logger = Logger.getLogger(APIRequestContextPool.class.getName());
+
+    // A pooled context and the APIRequest (i.e. the driver) that created it
+    private record PooledContext(APIRequest owner, APIRequestContext context) {
+    }
+
+    // Contexts of the current worker thread
+    private static final ThreadLocal<Map<String, PooledContext>> workerContexts = ThreadLocal.withInitial(HashMap::new);
+
+    // Every context of every worker, so they can all be disposed at the end of the run
+    private static final Set<APIRequestContext> allContexts = ConcurrentHashMap.newKeySet();
+
+    // Lease the context for this base URL, timeout and header set, creating it on first use.
+    public APIRequestContext lease(APIRequest apiRequest, String baseURL, double timeout, Map<String, String> headers) {
+        // TreeMap so that the same headers in a different order map to the same context
+        String key = baseURL + "|" + timeout + "|" + new TreeMap<>(headers);
+        Map<String, PooledContext> contexts = workerContexts.get();
+
+        PooledContext pooled = contexts.get(key);
+        if (pooled != null) {
+            if (pooled.owner() == apiRequest) {
+                RunMetrics.increment("api.context.reuses");
+                return pooled.context();
+            }
+            // The driver of this thread was restarted, the old context is unusable
+            contexts.remove(key);
+            dispose(pooled.context());
+        }
+
+        APIRequestContext context = apiRequest.newContext(
+                new APIRequest.NewContextOptions()
+                        .setBaseURL(baseURL)
+                        .setTimeout(timeout)
+                        .setExtraHTTPHeaders(headers)
+        );
+        contexts.put(key, new PooledContext(apiRequest, context));
+        allContexts.add(context);
+        RunMetrics.increment("api.context.created");
+        return context;
+    }
+
+    private static void dispose(APIRequestContext context) {
+        allContexts.remove(context);
+        try {
+            context.dispose();
+            RunMetrics.increment("api.context.disposed");
+        } catch (Exception e) {
+            // Logging the exception instead of throwing and failing the test
+            logger.log(Level.WARNING, "Error disposing APIRequestContext: " + e.getMessage());
+            RunMetrics.increment("api.context.leaks");
+        }
+    }
+
+    // Dispose every pooled context of every worker. Called once from @AfterAll, before the drivers are closed.
+    public static void disposeAll() {
+        for (APIRequestContext context : allContexts) {
+            dispose(context);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package manager;
 
 import com.microsoft.playwright.*;
 import io.cucumber.java.Scenario;
+import utilities.RunMetrics;
 
 import java.awt.*;
 import java.io.IOException;
@@ -9,15 +10,18 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class BrowserManager {
 
-    // Dependency on PlaywrightManager to manage the Playwright instance.
-    private final PlaywrightManager playwrightManager;
-
     // Represents a browser instance. used to create browser contexts.
     private static final ThreadLocal<Browser> browser = new ThreadLocal<>();
 
@@ -30,13 +34,27 @@ public class BrowserManager {
     // Represents the current Cucumber scenario for browser tests.
     private static final ThreadLocal<Scenario> scenario = new ThreadLocal<>();
 
+    // Blocked requests of the current scenario, when a network profile applies to it.
+    private static final ThreadLocal<NetworkProfiles.Stats> networkStats = new ThreadLocal<>();
+
+    // Trace chunks of the last steps of the current scenario (oldest first), while failure-only tracing is on.
+    private static final ThreadLocal<Deque<Path>> traceChunks = new ThreadLocal<>();
+
     public Properties properties;
+    private final BrowserPool browserPool;
+    private final StorageStateCache storageStateCache;
     private static final Logger logger = Logger.getLogger(BrowserManager.class.getName());
 
-    // Constructor to load properties from a configuration file with PlaywrightManager dependency.
-    public BrowserManager(PlaywrightManager playwrightManager) {
-        this.playwrightManager = playwrightManager;
+    // Worker JVMs run in their own directory, they get the project directory as -Dproject.dir
+    private static final Path TRACE_DIR = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")),
+            "target", "traces");
+
+    // Constructor to load properties from a configuration file. Browsers come from the shared BrowserPool,
+    // each with a Playwright driver of its own.
+    public BrowserManager() {
         loadProperties();
+        this.browserPool = new BrowserPool(properties);
+        this.storageStateCache = new StorageStateCache(properties);
     }
 
     // Method to load properties from a configuration file.
@@ -69,6 +87,11 @@ public class BrowserManager {
         page.set(pg);
     }
 
+    // Getter for the blocked request counters of the current scenario, null when no network profile applies.
+    public NetworkProfiles.Stats getNetworkStats() {
+        return networkStats.get();
+    }
+
     // Getter for Scenario. Used in tests to get the current scenario.
     public Scenario getScenario() {
         return scenario.get();
@@ -82,19 +105,68 @@ public class BrowserManager {
         return new byte[0];
     }
 
-    // Method to set up Playwright, browser, context, and page before each test.
-    public void setUp(Scenario scn) {
-        logger.info("Setting up Playwright...");
+    // Method to get the HTML of the current page, e.g. as a DOM snapshot of a failed scenario.
+    public String getPageContent() {
+        if (page.get() != null) {
+            return page.get().content();
+        }
+        return "";
+    }
 
-        // Initializing the shared Playwright instance
-        playwrightManager.initialize();
+    // Resolve the configured browser type to one of the Playwright browser engines.
+    private String resolveBrowserType() {
+        String browserType = properties.getProperty("browser", "chromium").toLowerCase();
+        switch (browserType) {
+            case "chromium":
+            case "firefox":
+            case "webkit":
+                return browserType;
+            default:
+                logger.warning("Unsupported browser type: " + browserType + ". Defaulting to chromium.");
+                return "chromium";
+        }
+    }
 
+    // Build the browser launch options from system properties.
+    private BrowserType.LaunchOptions buildLaunchOptions() {
         // Force headless mode if in CI (GitHub Actions sets CI=true)
         boolean isCI = "true".equalsIgnoreCase(System.getenv("CI"));
 
         boolean headless = Boolean.parseBoolean(System.getProperty("headless", isCI ? "true" : "false"));
         int slowMo = Integer.parseInt(System.getProperty("slowMo", "0"));
 
+        return new BrowserType.LaunchOptions()
+                .setHeadless(headless)
+                .setSlowMo(slowMo)
+                .setArgs(java.util.List.of("--no-sandbox"));
+    }
+
+    // Launch browsers in the background at suite start, so the first web scenarios find a warm browser.
+    public void warmUpBrowserPool(int count) {
+        BrowserPool.warmUp(count, resolveBrowserType(), buildLaunchOptions());
+    }
+
+    // Method to set up Playwright, browser, context, and page before each test.
+    public void setUp(Scenario scn) {
+        setUp(scn, null);
+    }
+
+    /**
+     * Set up Playwright, browser, context, and page before each test.
+     * Scenarios tagged with "@as:<role>" start from the cached logged-in storage state of that role.
+     *
+     * @param scn     The current scenario
+     * @param loginAs Drives the UI login for a role on the current page; used only when the cached state is stale
+     */
+    public void setUp(Scenario scn, Consumer<String> loginAs) {
+        logger.info("Setting up Playwright...");
+
+        String browserType = resolveBrowserType();
+        BrowserType.LaunchOptions launchOptions = buildLaunchOptions();
+
+        // Check whether running in CI (GitHub Actions sets CI=true)
+        boolean isCI = "true".equalsIgnoreCase(System.getenv("CI"));
+
         // Default viewport size
         int width = 1920;
         int height = 1080;
@@ -114,50 +186,178 @@ public class BrowserManager {
         }
 
         try {
-            //playwright.set(Playwright.create());
-            Playwright pw = playwrightManager.getPlaywright();
-
-            String browserType = properties.getProperty("browser", "chromium");
-            BrowserType.LaunchOptions launchOptions = new BrowserType.LaunchOptions()
-                    .setHeadless(headless)
-                    .setSlowMo(slowMo)
-                    .setArgs(java.util.List.of("--no-sandbox"));
-
-            switch (browserType.toLowerCase()) {
-                case "chromium":
-                    browser.set(pw.chromium().launch(launchOptions));
-                    break;
-                case "firefox":
-                    browser.set(pw.firefox().launch(launchOptions));
-                    break;
-                case "webkit":
-                    browser.set(pw.webkit().launch(launchOptions));
-                    break;
-                default:
-                    logger.warning("Unsupported browser type: " + browserType + ". Defaulting to chromium.");
-                    browser.set(pw.chromium().launch(launchOptions));
-                    break;
+            // Lease a launched browser (with its own driver) from the shared pool;
+            // every scenario still gets its own fresh context
+            browser.set(browserPool.lease(browserType, launchOptions));
+            Browser.NewContextOptions contextOptions = new Browser.NewContextOptions().setViewportSize(width, height);
+
+            // Start already logged in when the scenario asks for a role
+            String role = StorageStateCache.roleFromTags(scn.getSourceTagNames());
+            if (role != null) {
+                if (loginAs == null) {
+                    throw new IllegalStateException("Scenario is tagged @as:" + role + " but no login flow was provided.");
+                }
+                Path statePath = storageStateCache.resolve(role, path -> captureStorageState(path, () -> loginAs.accept(role)));
+                contextOptions.setStorageStatePath(statePath);
             }
-            context.set(browser.get().newContext(new Browser.NewContextOptions().setViewportSize(width, height)));
+
+            // HAR recording (-Dnetwork.mode=record) or replay (-Dnetwork.mode=replay) of the scenario's traffic
+            NetworkReplay.configure(contextOptions, properties, scn);
+            context.set(browser.get().newContext(contextOptions));
+            NetworkReplay.apply(context.get(), properties, scn);
+            // Abort the requests the scenario's network profiles block (images, fonts, third-party scripts, ...)
+            networkStats.set(NetworkProfiles.apply(context.get(), properties, scn.getSourceTagNames()));
             //context.set(browser.get().newContext());
             page.set(context.get().newPage());
-
-            // Set timeouts from properties file
-            int navigationTimeout = Integer.parseInt(properties.getProperty("page.load.timeout", "30000"));
-            int actionTimeout = Integer.parseInt(properties.getProperty("element.action.timeout", "15000"));
-            page.get().setDefaultNavigationTimeout(navigationTimeout);
-            page.get().setDefaultTimeout(actionTimeout);
+            applyTimeouts(page.get());
+            startTracing();
 
             // Store the scenario variable for using anywhere in the test
             scenario.set(scn);
 
             logger.info("Playwright setup complete!");
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
+            // Fail the scenario here, with the cause (e.g. a role without credentials), rather than at its first step.
+            // The @After hook still tears down whatever was set up.
             logger.log(Level.SEVERE, "Failed to set up Playwright.", e);
+            throw e;
         }
     }
 
-    // Method to tear down Playwright, browser, context, and page after each test.
+    // Set timeouts from properties file
+    private void applyTimeouts(Page pg) {
+        int navigationTimeout = Integer.parseInt(properties.getProperty("page.load.timeout", "30000"));
+        int actionTimeout = Integer.parseInt(properties.getProperty("element.action.timeout", "15000"));
+        pg.setDefaultNavigationTimeout(navigationTimeout);
+        pg.setDefaultTimeout(actionTimeout);
+    }
+
+    // Run the login steps in a throwaway context on the leased browser and save its storage state to the given path.
+    // Page objects used by the login steps see the login page through getPage() while it runs.
+    private void captureStorageState(Path statePath, Runnable loginSteps) {
+        BrowserContext loginContext = browser.get().newContext();
+        Page previousPage = page.get();
+        BrowserContext previousContext = context.get();
+        try {
+            context.set(loginContext);
+            page.set(loginContext.newPage());
+            applyTimeouts(page.get());
+            loginSteps.run();
+            loginContext.storageState(new BrowserContext.StorageStateOptions().setPath(statePath));
+        } finally {
+            loginContext.close();
+            context.set(previousContext);
+            page.set(previousPage);
+        }
+    }
+
+    private boolean tracingEnabled() {
+        return Boolean.parseBoolean(System.getProperty("trace.on.failure",
+                properties.getProperty("trace.on.failure", "false")));
+    }
+
+    // Start failure-only tracing of the new context. The first chunk covers the setup and the first step.
+    private void startTracing() {
+        if (!tracingEnabled()) {
+            return;
+        }
+        context.get().tracing().start(new Tracing.StartOptions()
+                .setScreenshots(Boolean.parseBoolean(properties.getProperty("trace.screenshots", "false")))
+                .setSnapshots(Boolean.parseBoolean(properties.getProperty("trace.snapshots", "true")))
+                .setSources(false));
+        traceChunks.set(new ArrayDeque<>());
+    }
+
+    /**
+     * Close the trace chunk of the step that just ended and start the next one. Only the chunks of the last
+     * "trace.keep.steps" steps are kept on disk (in a scratch directory), older ones are deleted.
+     */
+    public void rotateTraceChunk() {
+        Deque<Path> chunks = traceChunks.get();
+        if (chunks == null || context.get() == null) {
+            return;
+        }
+        try {
+            Path chunk = TRACE_DIR.resolve(".chunks").resolve(UUID.randomUUID() + ".zip");
+            context.get().tracing().stopChunk(new Tracing.StopChunkOptions().setPath(chunk));
+            chunks.addLast(chunk);
+            int keep = Integer.parseInt(properties.getProperty("trace.keep.steps", "5"));
+            while (chunks.size() > keep) {
+                Files.deleteIfExists(chunks.removeFirst());
+            }
+            context.get().tracing().startChunk();
+        } catch (Exception e) {
+            // Tracing is a diagnostic, it must not fail the scenario
+            logger.log(Level.WARNING, "Failed to rotate the trace chunk, tracing stopped for this scenario.", e);
+            discardTraceChunks(chunks);
+        }
+    }
+
+    /**
+     * Stop tracing at the end of the scenario. For a failed scenario the kept chunks (and the one still open)
+     * are written to target/traces/&lt;scenario&gt;-&lt;timestamp&gt;/, one zip per step, oldest first;
+     * for a passed one they are thrown away.
+     *
+     * @return The trace files of a failed scenario, empty otherwise
+     */
+    public List<Path> finishTracing(boolean failed, String scenarioName) {
+        Deque<Path> chunks = traceChunks.get();
+        if (chunks == null) {
+            return List.of();
+        }
+        List<Path> traces = new ArrayList<>();
+        try {
+            if (!failed || context.get() == null) {
+                if (context.get() != null) {
+                    context.get().tracing().stop();
+                }
+                return traces;
+            }
+            Path last = TRACE_DIR.resolve(".chunks").resolve(UUID.randomUUID() + ".zip");
+            context.get().tracing().stop(new Tracing.StopOptions().setPath(last));
+            chunks.addLast(last);
+
+            Path dir = TRACE_DIR.resolve(
+                    scenarioName.replaceAll("[^A-Za-z0-9._-]+", "_") + "-" + System.currentTimeMillis());
+            Files.createDirectories(dir);
+            int index = 1;
+            for (Path chunk : chunks) {
+                if (Files.exists(chunk)) {
+                    traces.add(Files.move(chunk, dir.resolve(String.format("%02d-trace.zip", index++))));
+                }
+            }
+            chunks.clear();
+            RunMetrics.increment("trace.failures.saved");
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to save the trace of the failed scenario.", e);
+        } finally {
+            discardTraceChunks(chunks);
+        }
+        return traces;
+    }
+
+    private void discardTraceChunks(Deque<Path> chunks) {
+        for (Path chunk : chunks) {
+            try {
+                Files.deleteIfExists(chunk);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to delete trace chunk " + chunk, e);
+            }
+        }
+        traceChunks.remove();
+    }
+
+    // The driver of the browser leased by the current scenario, or null
+    public Playwright getDriver() {
+        return browser.get() == null ? null : BrowserPool.owner(browser.get());
+    }
+
+    // Getter for the storage state cache, e.g. to invalidate a role whose session turned out to be expired.
+    public StorageStateCache getStorageStateCache() {
+        return storageStateCache;
+    }
+
+    // Method to tear down the page and context after each test. The browser goes back to the pool.
     public void tearDown() {
         try {
             logger.info("Tearing down Browser...");
@@ -165,7 +365,7 @@ public class BrowserManager {
             if (scenario.get() != null) scenario.remove();
             if (page.get() != null) page.get().close();
             if (context.get() != null) context.get().close();
-            if (browser.get() != null) browser.get().close();
+            if (browser.get() != null) browserPool.release(browser.get());
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Failed to close Playwright resources.", e);
         } finally {
@@ -174,6 +374,8 @@ public class BrowserManager {
             page.remove();
             context.remove();
             browser.remove();
+            traceChunks.remove();
+            networkStats.remove();
         }
         logger.info("Browser teardown complete!");
     }
@@ -0,0 +1,345 @@
+package manager;
+
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.BrowserType;
+import com.microsoft.playwright.Playwright;
+import runner.ResourceClassScheduler;
+import utilities.RunMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps launched browsers alive between scenarios so that each scenario only pays for a new BrowserContext.
+ * The pool is shared by all worker threads. A browser belongs to the Playwright driver that launched it and
+ * Playwright objects are not thread-safe, so every pooled browser has a driver of its own, and a lease hands both
+ * to one worker thread at a time.
+ * At most "browser.pool.max.size" browsers are alive at once (default: the web scenario limit, thread.count.web);
+ * a lease over the cap closes the least recently used idle browser, or waits for one to be released.
+ * Idle browsers are closed after "browser.pool.idle.timeout" ms by a background reaper.
+ * Browsers warmed up at suite start go into the same pool.
+ */
+public class BrowserPool {
+
+    private static final Logger logger = Logger.getLogger(BrowserPool.class.getName());
+
+    // A launched browser together with the driver that owns it.
+    private static final class PooledBrowser {
+        private final String key;
+        private final Playwright owner;
+        private final Browser browser;
+        private volatile boolean crashed;
+        private boolean warm;
+        private long lastReleased;
+
+        private PooledBrowser(String key, Playwright owner, Browser browser) {
+            this.key = key;
+            this.owner = owner;
+            this.browser = browser;
+            this.lastReleased = System.nanoTime();
+            browser.onDisconnected(b -> crashed = true);
+        }
+
+        private boolean isUsable() {
+            return !crashed && browser.isConnected();
+        }
+    }
+
+    // Pool state of all worker threads, guarded by lock. Idle browsers are in release order, oldest first.
+    private static final ReentrantLock lock = new ReentrantLock();
+    // Signalled whenever a browser is released or a launch finishes, for the threads waiting in lease
+    private static final Condition changed = lock.newCondition();
+    private static final Deque<PooledBrowser> idle = new ArrayDeque<>();
+    private static final Map<Browser, PooledBrowser> leased = new HashMap<>();
+    // Launches in progress, counted against the cap; the warm-up ones can be waited for
+    private static int launching;
+    private static int warmLaunching;
+    private static String warmKey;
+
+    private static volatile ExecutorService warmer;
+    private static volatile ScheduledExecutorService reaper;
+
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+
+    public BrowserPool(Properties properties) {
+        String maxSize = properties.getProperty("browser.pool.max.size");
+        this.maxSize = maxSize == null || maxSize.isBlank()
+                ? ResourceClassScheduler.limit(ResourceClassScheduler.ResourceClass.WEB)
+                : Integer.parseInt(maxSize.trim());
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("browser.pool.idle.timeout", "300000")));
+    }
+
+    // Build the pool key from everything that makes two launched browsers interchangeable.
+    public static String key(String browserType, BrowserType.LaunchOptions options) {
+        return browserType + "|headless=" + options.headless + "|slowMo=" + options.slowMo;
+    }
+
+    // Launch browsers in the background so that the first scenarios don't pay for the cold start.
+    public static synchronized void warmUp(int count, String browserType, BrowserType.LaunchOptions options) {
+        if (count <= 0 || warmer != null) {
+            return;
+        }
+        String key = key(browserType, options);
+        warmer = Executors.newFixedThreadPool(count, runnable -> {
+            Thread thread = new Thread(runnable, "browser-pool-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lock.lock();
+        try {
+            warmKey = key;
+            warmLaunching += count;
+            launching += count;
+        } finally {
+            lock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            warmer.submit(() -> {
+                PooledBrowser pooled = null;
+                try {
+                    Playwright pw = Playwright.create();
+                    pooled = new PooledBrowser(key, pw, launch(pw, browserType, options));
+                    pooled.warm = true;
+                    RunMetrics.increment("browser.pool.warm.launches");
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to warm up a " + browserType + " browser.", e);
+                } finally {
+                    lock.lock();
+                    try {
+                        warmLaunching--;
+                        launching--;
+                        if (pooled != null) {
+                            idle.addLast(pooled);
+                        }
+                        changed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+        warmer.shutdown();
+        logger.info("Warming up " + count + " " + browserType + " browser(s) in the background.");
+    }
+
+    /**
+     * Lease a browser for the current scenario: an idle one with the same key if there is one (or one still being
+     * warmed up), else a newly launched one. Give it back with {@link #release(Browser)}.
+     */
+    public Browser lease(String browserType, BrowserType.LaunchOptions options) {
+        long start = System.nanoTime();
+        String key = key(browserType, options);
+        List<PooledBrowser> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            startReaper();
+            while (true) {
+                PooledBrowser pooled = takeIdle(key, toClose);
+                if (pooled != null) {
+                    leased.put(pooled.browser, pooled);
+                    RunMetrics.increment(pooled.warm ? "browser.pool.warm.adoptions" : "browser.pool.reuses");
+                    pooled.warm = false;
+                    return pooled.browser;
+                }
+                boolean warmComing = warmLaunching > 0 && key.equals(warmKey);
+                // Make room by closing the least recently used idle browsers of other keys
+                while (!warmComing && size() >= maxSize && !idle.isEmpty()) {
+                    toClose.add(idle.pollFirst());
+                    RunMetrics.increment("browser.pool.size.evictions");
+                }
+                if (!warmComing && size() < maxSize) {
+                    launching++;
+                    break;
+                }
+                changed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a pooled browser.", e);
+        } finally {
+            lock.unlock();
+            closeAll(toClose);
+            RunMetrics.add("browser.pool.wait.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        PooledBrowser pooled = null;
+        try {
+            Playwright pw = Playwright.create();
+            try {
+                pooled = new PooledBrowser(key, pw, launch(pw, browserType, options));
+            } catch (RuntimeException e) {
+                pw.close();
+                throw e;
+            }
+            RunMetrics.increment("browser.pool.launches");
+            return pooled.browser;
+        } finally {
+            lock.lock();
+            try {
+                launching--;
+                if (pooled != null) {
+                    leased.put(pooled.browser, pooled);
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // The most recently released usable idle browser of the key; unusable ones found on the way are dropped.
+    private static PooledBrowser takeIdle(String key, List<PooledBrowser> toClose) {
+        for (Iterator<PooledBrowser> it = idle.descendingIterator(); it.hasNext(); ) {
+            PooledBrowser pooled = it.next();
+            if (!pooled.isUsable()) {
+                it.remove();
+                toClose.add(pooled);
+                RunMetrics.increment("browser.pool.crashes");
+            } else if (pooled.key.equals(key)) {
+                it.remove();
+                return pooled;
+            }
+        }
+        return null;
+    }
+
+    private static int size() {
+        return idle.size() + leased.size() + launching;
+    }
+
+    // The driver that owns a leased browser (the one to close to abort a hung call), or null.
+    public static Playwright owner(Browser browser) {
+        lock.lock();
+        try {
+            PooledBrowser pooled = leased.get(browser);
+            return pooled == null ? null : pooled.owner;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Give the browser back to the pool once the scenario has closed its context. A crashed one is closed instead.
+    public void release(Browser browser) {
+        List<PooledBrowser> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            PooledBrowser pooled = leased.remove(browser);
+            if (pooled == null) {
+                return;
+            }
+            if (pooled.isUsable()) {
+                pooled.lastReleased = System.nanoTime();
+                idle.addLast(pooled);
+            } else {
+                logger.warning("Pooled browser is no longer usable (crashed or its driver was closed). Closing it.");
+                toClose.add(pooled);
+                RunMetrics.increment("browser.pool.crashes");
+            }
+            evictIdle(idleTimeoutNanos, toClose);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+            closeAll(toClose);
+        }
+    }
+
+    // Idle browsers are closed even when no scenario leases or releases one any more
+    private void startReaper() {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "browser-pool-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = Math.max(1000, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2);
+        long timeoutNanos = idleTimeoutNanos;
+        reaper.scheduleAtFixedRate(() -> {
+            List<PooledBrowser> toClose = new ArrayList<>();
+            lock.lock();
+            try {
+                evictIdle(timeoutNanos, toClose);
+            } finally {
+                lock.unlock();
+            }
+            closeAll(toClose);
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void evictIdle(long timeoutNanos, List<PooledBrowser> toClose) {
+        long now = System.nanoTime();
+        for (Iterator<PooledBrowser> it = idle.iterator(); it.hasNext(); ) {
+            PooledBrowser pooled = it.next();
+            if (now - pooled.lastReleased > timeoutNanos) {
+                it.remove();
+                toClose.add(pooled);
+                RunMetrics.increment("browser.pool.idle.evictions");
+            }
+        }
+    }
+
+    private static Browser launch(Playwright pw, String browserType, BrowserType.LaunchOptions options) {
+        switch (browserType) {
+            case "firefox":
+                return pw.firefox().launch(options);
+            case "webkit":
+                return pw.webkit().launch(options);
+            default:
+                return pw.chromium().launch(options);
+        }
+    }
+
+    // Close browsers and their drivers, outside the lock: closing takes a while
+    private static void closeAll(List<PooledBrowser> browsers) {
+        for (PooledBrowser pooled : browsers) {
+            try {
+                pooled.browser.close();
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Failed to close pooled browser.", e);
+            }
+            try {
+                pooled.owner.close();
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Failed to close the driver of a pooled browser.", e);
+            }
+        }
+    }
+
+    // Close every pooled browser, idle or leased, with its driver. Called once from @AfterAll.
+    public static void shutdownAll() {
+        if (warmer != null) {
+            warmer.shutdownNow();
+        }
+        if (reaper != null) {
+            reaper.shutdownNow();
+        }
+        List<PooledBrowser> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            toClose.addAll(idle);
+            toClose.addAll(leased.values());
+            idle.clear();
+            leased.clear();
+        } finally {
+            lock.unlock();
+        }
+        closeAll(toClose);
+    }
+}
@@ -0,0 +1,132 @@
+package manager;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of what each scenario uses: the step definition classes it invoked and the YAML fixture keys it loaded
+ * (e.g. "apiRequests/ScenarioRequests.yml#Scenario1"). Recorded while scenarios run (see runner.ImpactRecorder),
+ * merged into .scenario-history/impact-index.json and used to select the scenarios affected by a change.
+ * Scenarios that didn't run keep their previous entry, so the index is updated incrementally.
+ * Fixture keys loaded outside any scenario (e.g. config read by the @BeforeAll hook) are recorded under
+ * {@link #STARTUP} and accumulate over runs: they affect every scenario.
+ */
+public final class ImpactIndex {
+
+    private static final Logger logger = Logger.getLogger(ImpactIndex.class.getName());
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // What one scenario used
+    public record Usage(Set<String> steps, Set<String> fixtures) {
+    }
+
+    // Pseudo scenario key of the fixtures loaded outside any scenario
+    public static final String STARTUP = "<startup>";
+
+    // Usage of the scenarios that ran in this JVM
+    private static final Map<String, Usage> recorded = new ConcurrentHashMap<>();
+
+    // Scenario running on the current thread, so that fixture loads can be attributed to it
+    private static final ThreadLocal<Usage> current = new ThreadLocal<>();
+
+    private ImpactIndex() {
+        // utility
+    }
+
+    // Location of the index, shared by worker JVMs through -Dproject.dir
+    public static Path indexFile() {
+        return Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")),
+                ".scenario-history", "impact-index.json");
+    }
+
+    public static void scenarioStarted(String key) {
+        Usage usage = new Usage(ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet());
+        recorded.put(key, usage);
+        current.set(usage);
+    }
+
+    public static void scenarioFinished() {
+        current.remove();
+    }
+
+    public static void stepUsed(String stepDefinitionClass) {
+        Usage usage = current.get();
+        if (usage != null) {
+            usage.steps().add(stepDefinitionClass);
+        }
+    }
+
+    // Called by FixtureRepository for every fixture lookup
+    public static void fixtureUsed(String filePath, String key) {
+        Usage usage = current.get();
+        if (usage == null) {
+            usage = recorded.computeIfAbsent(STARTUP,
+                    k -> new Usage(ConcurrentHashMap.newKeySet(), ConcurrentHashMap.newKeySet()));
+        }
+        usage.fixtures().add(filePath + "#" + key);
+    }
+
+    // Read the index of previous runs (empty if there is none yet)
+    public static Map<String, Usage> load() {
+        Path file = indexFile();
+        if (!Files.exists(file)) {
+            return new TreeMap<>();
+        }
+        try {
+            return JSON_MAPPER.readValue(file.toFile(), new TypeReference<TreeMap<String, Usage>>() {
+            });
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable impact index " + file, e);
+            return new TreeMap<>();
+        }
+    }
+
+    // Merge this run's usage into the index file. Locked, since worker JVMs save at the same time.
+    public static void save() {
+        if (recorded.isEmpty()) {
+            return;
+        }
+        Path file = indexFile();
+        try {
+            Files.createDirectories(file.getParent());
+            Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed
+                channel.lock();
+                Map<String, Usage> index = load();
+                recorded.forEach((key, usage) -> {
+                    Usage merged = new Usage(new TreeSet<>(usage.steps()), new TreeSet<>(usage.fixtures()));
+                    // What a run loads at startup depends on the scenarios it runs, so keep the earlier runs' too
+                    Usage previous = index.get(key);
+                    if (key.equals(STARTUP) && previous != null) {
+                        merged.steps().addAll(previous.steps());
+                        merged.fixtures().addAll(previous.fixtures());
+                    }
+                    index.put(key, merged);
+                });
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                JSON_MAPPER.writeValue(temp.toFile(), index);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write the impact index " + file, e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package manager;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Request;
+import com.microsoft.playwright.Route;
+import utilities.RunMetrics;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Named routing profiles that abort requests the assertions never look at (images, fonts, analytics, ...),
+ * defined in config.properties as "network.profile.&lt;name&gt;.*":
+ * <ul>
+ *     <li>block.types: Playwright resource types to abort, e.g. "image,media,font"</li>
+ *     <li>block.urls: regular expressions of URLs to abort</li>
+ *     <li>allow.hosts: when set, only these hosts (and their subdomains) are let through</li>
+ * </ul>
+ * "network.profile" is the default for all web scenarios; tags "@network:&lt;name&gt;" replace it for one scenario
+ * (several tags combine, "@network:none" turns blocking off). Profiles are parsed and their patterns compiled once.
+ */
+public final class NetworkProfiles {
+
+    private static final Logger logger = Logger.getLogger(NetworkProfiles.class.getName());
+
+    private static final String TAG_PREFIX = "@network:";
+
+    // A parsed profile
+    private record Profile(String name, Set<String> blockedTypes, List<Pattern> blockedUrls, List<String> allowedHosts) {
+
+        // Reason the request is blocked, or null
+        private String blockReason(Request request) {
+            if (blockedTypes.contains(request.resourceType())) {
+                return request.resourceType();
+            }
+            String url = request.url();
+            for (Pattern pattern : blockedUrls) {
+                if (pattern.matcher(url).find()) {
+                    return "url";
+                }
+            }
+            if (!allowedHosts.isEmpty() && !isAllowedHost(host(url))) {
+                return "third-party";
+            }
+            return null;
+        }
+
+        private boolean isAllowedHost(String host) {
+            if (host == null) {
+                return true;
+            }
+            for (String allowed : allowedHosts) {
+                if (host.equals(allowed) || host.endsWith("." + allowed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Blocked requests of one scenario
+    public static final class Stats {
+        private final Map<String, Integer> blockedByReason = new TreeMap<>();
+        private int blocked;
+        private long bytesSaved;
+
+        private synchronized void blocked(String reason, long bytes) {
+            blocked++;
+            bytesSaved += bytes;
+            blockedByReason.merge(reason, 1, Integer::sum);
+        }
+
+        public synchronized int blocked() {
+            return blocked;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Blocked " + blocked + " requests " + blockedByReason + ", about " + bytesSaved / 1024
+                    + " KB saved (estimated from the sizes of the same URLs when they were loaded)";
+        }
+    }
+
+    private static final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+
+    // Content-Length of responses that were loaded, to estimate what blocking the same URL saves
+    private static final Map<String, Long> knownSizes = new ConcurrentHashMap<>();
+    private static final int MAX_KNOWN_SIZES = 10_000;
+
+    private NetworkProfiles() {
+        // utility
+    }
+
+    // Profiles of the scenario: its @network: tags, else the default profile
+    private static List<Profile> forScenario(Properties properties, Collection<String> tags) {
+        List<String> names = tags.stream()
+                .filter(tag -> tag.startsWith(TAG_PREFIX))
+                .map(tag -> tag.substring(TAG_PREFIX.length()))
+                .collect(Collectors.toList());
+        if (names.isEmpty()) {
+            names = List.of(System.getProperty("network.profile", properties.getProperty("network.profile", "none")));
+        }
+        List<Profile> selected = new ArrayList<>();
+        for (String name : names) {
+            if (!name.isBlank() && !name.equals("none")) {
+                selected.add(profiles.computeIfAbsent(name, n -> parse(properties, n)));
+            }
+        }
+        return selected;
+    }
+
+    private static Profile parse(Properties properties, String name) {
+        String prefix = "network.profile." + name + ".";
+        if (properties.stringPropertyNames().stream().noneMatch(key -> key.startsWith(prefix))) {
+            throw new IllegalArgumentException("Unknown network profile '" + name + "'. Define "
+                    + prefix + "* in config.properties.");
+        }
+        return new Profile(name,
+                Set.copyOf(list(properties.getProperty(prefix + "block.types"))),
+                list(properties.getProperty(prefix + "block.urls")).stream().map(Pattern::compile).toList(),
+                list(properties.getProperty(prefix + "allow.hosts")));
+    }
+
+    private static List<String> list(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+    }
+
+    private static String host(String url) {
+        try {
+            return URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply the scenario's profiles to its context.
+     *
+     * @return The counters of the blocked requests, or null when no profile applies
+     */
+    public static Stats apply(BrowserContext context, Properties properties, Collection<String> tags) {
+        // Sizes are learned from every context, also the ones that block nothing
+        context.onResponse(response -> {
+            String length = response.headers().get("content-length");
+            if (length != null && knownSizes.size() < MAX_KNOWN_SIZES) {
+                try {
+                    knownSizes.put(response.url(), Long.parseLong(length));
+                } catch (NumberFormatException ignored) {
+                    // not a size
+                }
+            }
+        });
+
+        List<Profile> selected = forScenario(properties, tags);
+        if (selected.isEmpty()) {
+            return null;
+        }
+        Stats stats = new Stats();
+        context.route(url -> !url.startsWith("data:"), route -> handle(route, selected, stats));
+        logger.fine("Network profiles " + selected.stream().map(Profile::name).toList() + " applied.");
+        return stats;
+    }
+
+    private static void handle(Route route, List<Profile> selected, Stats stats) {
+        Request request = route.request();
+        for (Profile profile : selected) {
+            String reason = profile.blockReason(request);
+            if (reason != null) {
+                long bytes = knownSizes.getOrDefault(request.url(), 0L);
+                stats.blocked(reason, bytes);
+                RunMetrics.increment("network.blocked.requests");
+                RunMetrics.add("network.blocked.bytes.estimated", bytes);
+                route.abort("blockedbyclient");
+                return;
+            }
+        }
+        // Not blocked: let other routes (or the network) handle it
+        route.fallback();
+    }
+}
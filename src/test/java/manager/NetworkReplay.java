@@ -0,0 +1,356 @@
+package manager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Route;
+import com.microsoft.playwright.options.HarContentPolicy;
+import com.microsoft.playwright.options.HarMode;
+import com.microsoft.playwright.options.HarNotFound;
+import io.cucumber.java.Scenario;
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * HAR record/replay of web scenarios, selected with -Dnetwork.mode (or "network.mode" in config.properties):
+ * <ul>
+ *     <li>live (default): the real network</li>
+ *     <li>record: every scenario records a HAR; at the end of the run they are merged into one HAR per feature
+ *     in network.har.dir (default src/test/resources/har)</li>
+ *     <li>replay: requests are served from the feature's HAR through routeFromHAR. Requests that don't match
+ *     exactly are matched again with normalised URLs (sorted query, random parameters such as cache busters
+ *     removed, see network.har.ignore.params). What is still not found is aborted (network.har.notfound=abort,
+ *     strict, for offline runs) or sent to the network (fallback).</li>
+ * </ul>
+ * A replay run writes target/har-staleness.txt: the HAR entries no scenario requested and the requests missing
+ * from the HARs, i.e. what a new recording would change.
+ */
+public final class NetworkReplay {
+
+    private static final Logger logger = Logger.getLogger(NetworkReplay.class.getName());
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    // Normalised "METHOD url" of the entries of each loaded HAR, and the ones that were requested
+    private static final Map<Path, Map<String, JsonNode>> harIndexes = new ConcurrentHashMap<>();
+    private static final Set<String> hits = ConcurrentHashMap.newKeySet();
+    // Requests that were not in the HAR of their feature, per HAR
+    private static final Map<Path, Set<String>> misses = new ConcurrentHashMap<>();
+    // Settings of the run, remembered for finish()
+    private static volatile Properties runProperties;
+
+    private NetworkReplay() {
+        // utility
+    }
+
+    private static String mode(Properties properties) {
+        return System.getProperty("network.mode", properties.getProperty("network.mode", "live")).trim().toLowerCase();
+    }
+
+    private static Path projectDir() {
+        return Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")));
+    }
+
+    private static Path harDir(Properties properties) {
+        return projectDir().resolve(System.getProperty("network.har.dir",
+                properties.getProperty("network.har.dir", "src/test/resources/har")));
+    }
+
+    private static Path recordingsDir() {
+        return projectDir().resolve(Paths.get("target", "har-recordings"));
+    }
+
+    // "features/Login.feature" -> "Login"
+    private static String featureName(Scenario scenario) {
+        String path = scenario.getUri().getPath();
+        String file = path.substring(path.lastIndexOf('/') + 1);
+        return file.endsWith(".feature") ? file.substring(0, file.length() - ".feature".length()) : file;
+    }
+
+    /**
+     * Context options of the scenario: in record mode the context records a HAR of its own,
+     * merged into the feature's HAR at the end of the run.
+     */
+    public static void configure(Browser.NewContextOptions options, Properties properties, Scenario scenario) {
+        runProperties = properties;
+        String mode = mode(properties);
+        switch (mode) {
+            case "live":
+            case "replay":
+                return;
+            case "record":
+                options.setRecordHarPath(recordingsDir().resolve(featureName(scenario))
+                                .resolve("line-" + scenario.getLine() + ".har"))
+                        .setRecordHarContent(HarContentPolicy.EMBED)
+                        .setRecordHarMode(HarMode.MINIMAL);
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported network.mode: " + mode
+                        + ". Must be 'live', 'record' or 'replay'.");
+        }
+    }
+
+    // In replay mode, serve the context's requests from the feature's HAR
+    public static void apply(BrowserContext context, Properties properties, Scenario scenario) {
+        if (!mode(properties).equals("replay")) {
+            return;
+        }
+        Path har = harDir(properties).resolve(featureName(scenario) + ".har");
+        if (!Files.exists(har)) {
+            throw new IllegalStateException("No HAR recorded for feature " + featureName(scenario) + " (" + har
+                    + "). Run with -Dnetwork.mode=record first.");
+        }
+        Set<String> ignoredParams = Arrays.stream(properties.getProperty("network.har.ignore.params", "").split(","))
+                .map(String::trim).filter(p -> !p.isEmpty()).collect(Collectors.toSet());
+        Map<String, JsonNode> index = harIndexes.computeIfAbsent(har, path -> index(path, ignoredParams));
+        boolean strict = !"fallback".equalsIgnoreCase(properties.getProperty("network.har.notfound", "abort"));
+
+        // Routes run last-registered first: routeFromHAR matches exactly, then the normalised lookup gets its misses
+        context.route("**/*", route -> replayNormalised(route, har, index, ignoredParams, strict));
+        context.routeFromHAR(har, new BrowserContext.RouteFromHAROptions().setNotFound(HarNotFound.FALLBACK));
+        context.onRequest(request -> hits.add(har + "|" + key(request.method(), request.url(), ignoredParams)));
+    }
+
+    private static void replayNormalised(Route route, Path har, Map<String, JsonNode> index, Set<String> ignoredParams,
+                                         boolean strict) {
+        String key = key(route.request().method(), route.request().url(), ignoredParams);
+        JsonNode entry = index.get(key);
+        if (entry != null) {
+            RunMetrics.increment("network.har.normalised.hits");
+            JsonNode response = entry.path("response");
+            Map<String, String> headers = new LinkedHashMap<>();
+            response.path("headers").forEach(header -> {
+                String name = header.path("name").asText();
+                // The body is decoded and served whole
+                if (!name.equalsIgnoreCase("content-encoding") && !name.equalsIgnoreCase("content-length")) {
+                    headers.put(name, header.path("value").asText());
+                }
+            });
+            JsonNode content = response.path("content");
+            byte[] body = "base64".equals(content.path("encoding").asText())
+                    ? Base64.getDecoder().decode(content.path("text").asText())
+                    : content.path("text").asText().getBytes(StandardCharsets.UTF_8);
+            route.fulfill(new Route.FulfillOptions()
+                    .setStatus(response.path("status").asInt(200))
+                    .setHeaders(headers)
+                    .setBodyBytes(body));
+            return;
+        }
+        misses.computeIfAbsent(har, h -> ConcurrentHashMap.newKeySet()).add(key);
+        RunMetrics.increment("network.har.misses");
+        if (strict) {
+            route.abort("internetdisconnected");
+        } else {
+            route.resume();
+        }
+    }
+
+    // Entries of the HAR by normalised key (the last one wins, like routeFromHAR)
+    private static Map<String, JsonNode> index(Path har, Set<String> ignoredParams) {
+        try {
+            Map<String, JsonNode> index = new HashMap<>();
+            for (JsonNode entry : JSON_MAPPER.readTree(har.toFile()).path("log").path("entries")) {
+                JsonNode request = entry.path("request");
+                index.put(key(request.path("method").asText(), request.path("url").asText(), ignoredParams), entry);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read HAR file " + har, e);
+        }
+    }
+
+    // "GET https://host/path?a=1&b=2": fragment and ignored query parameters removed, remaining parameters sorted
+    static String key(String method, String url, Set<String> ignoredParams) {
+        try {
+            URI uri = URI.create(url);
+            String query = uri.getRawQuery() == null ? "" : Arrays.stream(uri.getRawQuery().split("&"))
+                    .filter(param -> !ignoredParams.contains(param.split("=", 2)[0]))
+                    .sorted()
+                    .collect(Collectors.joining("&"));
+            return method + " " + uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath()
+                    + (query.isEmpty() ? "" : "?" + query);
+        } catch (IllegalArgumentException e) {
+            return method + " " + url;
+        }
+    }
+
+    /**
+     * End of the run: in record mode, merge the scenario HARs into one HAR per feature; in replay mode, write
+     * the staleness report. Called from @AfterAll, once the contexts (and with them the recordings) are closed.
+     */
+    public static void finish() {
+        Properties properties = runProperties;
+        if (properties == null) {
+            // No web scenario ran
+            return;
+        }
+        switch (mode(properties)) {
+            case "record":
+                mergeRecordings(harDir(properties));
+                break;
+            case "replay":
+                writeStalenessReport();
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Locked and idempotent: worker JVMs each merge everything recorded so far, the last one has it all
+    private static void mergeRecordings(Path harDir) {
+        Path recordings = recordingsDir();
+        if (!Files.isDirectory(recordings)) {
+            return;
+        }
+        try {
+            Files.createDirectories(harDir);
+            try (FileChannel channel = FileChannel.open(recordings.resolve(".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 Stream<Path> features = Files.list(recordings)) {
+                // Released when the channel is closed
+                channel.lock();
+                for (Path feature : features.filter(Files::isDirectory).toList()) {
+                    Path har = harDir.resolve(feature.getFileName() + ".har");
+                    mergeFeature(feature, har);
+                    logger.info("Recorded " + har);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to merge the recorded HAR files.", e);
+        }
+    }
+
+    private static void mergeFeature(Path featureRecordings, Path har) throws IOException {
+        ObjectNode merged = null;
+        List<Path> scenarioHars;
+        try (Stream<Path> files = Files.list(featureRecordings)) {
+            scenarioHars = files.filter(file -> file.toString().endsWith(".har")).sorted().toList();
+        }
+        for (Path scenarioHar : scenarioHars) {
+            ObjectNode log = (ObjectNode) JSON_MAPPER.readTree(scenarioHar.toFile()).path("log");
+            if (merged == null) {
+                merged = log;
+            } else {
+                merged.withArray("pages").addAll(log.withArray("pages"));
+                merged.withArray("entries").addAll(log.withArray("entries"));
+            }
+        }
+        if (merged == null) {
+            return;
+        }
+        ObjectNode root = JSON_MAPPER.createObjectNode();
+        root.set("log", merged);
+        Path temp = har.resolveSibling(har.getFileName() + ".tmp");
+        JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), root);
+        Files.move(temp, har, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Locked and idempotent like mergeRecordings: every JVM (worker JVMs replay too) saves what it saw to
+    // target/har-staleness/ and rewrites the report from all of them, the last one has it all
+    private static void writeStalenessReport() {
+        if (harIndexes.isEmpty()) {
+            return;
+        }
+        Path dir = projectDir().resolve(Paths.get("target", "har-staleness"));
+        Path file = projectDir().resolve(Paths.get("target", "har-staleness.txt"));
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve(".lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.lock();
+                String worker = System.getProperty("worker.id");
+                Files.write(dir.resolve(worker == null ? "main.txt" : "w" + worker + ".txt"), observations(),
+                        StandardCharsets.UTF_8);
+
+                // HAR -> its entries, the ones requested, and the requests it didn't have, over all JVMs
+                Map<String, Set<String>> entries = new TreeMap<>();
+                Map<String, Set<String>> requested = new HashMap<>();
+                Map<String, Set<String>> missing = new HashMap<>();
+                long started = ManagementFactory.getRuntimeMXBean().getStartTime();
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path observed : files.filter(f -> f.toString().endsWith(".txt")).toList()) {
+                        // Left over from an earlier run without "mvn clean"
+                        if (Files.getLastModifiedTime(observed).toMillis() < started) {
+                            continue;
+                        }
+                        for (String line : Files.readAllLines(observed, StandardCharsets.UTF_8)) {
+                            String[] parts = line.split("\t", 3);
+                            Map<String, Set<String>> kind = switch (parts[0]) {
+                                case "entry" -> entries;
+                                case "hit" -> requested;
+                                default -> missing;
+                            };
+                            kind.computeIfAbsent(parts[1], har -> new TreeSet<>()).add(parts[2]);
+                        }
+                    }
+                }
+
+                StringBuilder report = new StringBuilder("HAR staleness report\n");
+                int unused = 0;
+                int unrecorded = 0;
+                for (Map.Entry<String, Set<String>> har : entries.entrySet()) {
+                    Set<String> hit = requested.getOrDefault(har.getKey(), Set.of());
+                    List<String> neverHit = har.getValue().stream().filter(key -> !hit.contains(key)).toList();
+                    Set<String> notRecorded = missing.getOrDefault(har.getKey(), Set.of());
+                    unused += neverHit.size();
+                    unrecorded += notRecorded.size();
+                    report.append("\n").append(har.getKey()).append(": ")
+                            .append(har.getValue().size()).append(" entries, ")
+                            .append(neverHit.size()).append(" never requested, ")
+                            .append(notRecorded.size()).append(" requests not recorded\n");
+                    neverHit.forEach(key -> report.append("  unused   ").append(key).append('\n'));
+                    notRecorded.forEach(key -> report.append("  missing  ").append(key).append('\n'));
+                }
+                Files.writeString(file, report.toString(), StandardCharsets.UTF_8);
+                RunMetrics.note("HAR replay: " + unused + " unused entries, " + unrecorded
+                        + " unrecorded requests, see " + file);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write the HAR staleness report.", e);
+        }
+    }
+
+    // What this JVM saw, one "entry|hit|miss<TAB>HAR<TAB>METHOD url" line each
+    private static List<String> observations() {
+        List<String> lines = new ArrayList<>();
+        harIndexes.forEach((har, index) -> {
+            String name = projectDir().relativize(har).toString();
+            for (String key : index.keySet()) {
+                lines.add("entry\t" + name + "\t" + key);
+                if (hits.contains(har + "|" + key)) {
+                    lines.add("hit\t" + name + "\t" + key);
+                }
+            }
+            misses.getOrDefault(har, Set.of()).forEach(key -> lines.add("miss\t" + name + "\t" + key));
+        });
+        return lines;
+    }
+}
@@ -1,17 +1,57 @@
 package manager;
 
 import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.PlaywrightException;
+import utilities.RunMetrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class PlaywrightManager {
 
-    // Represents a single Playwright instance, which can shared for both Web and API tests.
+    private static final Logger logger = Logger.getLogger(PlaywrightManager.class.getName());
+
+    // Represents a single Playwright instance, used by the API tests (browsers have drivers of their own, see
+    // BrowserPool). One driver is kept per worker thread for the whole run instead of being created for every scenario.
     private static final ThreadLocal<Playwright> playwright = new ThreadLocal<>();
 
-    // Initializes a new Playwright instance.
+    // Every driver started by any worker thread, so that all of them can be closed once at the end of the run.
+    private static final Set<Playwright> activeDrivers = ConcurrentHashMap.newKeySet();
+
+    // Drivers known to be dead: closed by the watchdog, or found closed by a failed call. Restarted on next use.
+    private static final Set<Playwright> deadDrivers = ConcurrentHashMap.newKeySet();
+
+    static {
+        // Safety net in case the suite is aborted before the @AfterAll hook gets a chance to run
+        Runtime.getRuntime().addShutdownHook(new Thread(PlaywrightManager::shutdownAll, "playwright-shutdown"));
+    }
+
+    // Initializes a new Playwright instance for this thread, or reuses the existing one unless it is known to be dead.
     public void initialize() {
-        if (playwright.get() == null) {
-            playwright.set(Playwright.create());
+        Playwright current = playwright.get();
+        if (current != null) {
+            if (!deadDrivers.remove(current)) {
+                // One Playwright.create() (and its Node driver process) avoided
+                RunMetrics.increment("playwright.driver.reuses");
+                return;
+            }
+            logger.warning("Playwright driver of thread " + Thread.currentThread().getName()
+                    + " is closed. Restarting it.");
+            RunMetrics.increment("playwright.driver.restarts");
+            cleanup();
         }
+
+        Playwright created = Playwright.create();
+        playwright.set(created);
+        activeDrivers.add(created);
+        RunMetrics.increment("playwright.driver.starts");
+    }
+
+    // Check whether the current thread already owns a Playwright driver.
+    public boolean isInitialized() {
+        return playwright.get() != null;
     }
 
     // Getter for Playwright instance. Used in tests to get the current Playwright instance.
@@ -23,14 +63,51 @@ public class PlaywrightManager {
         return playwright.get();
     }
 
+    // Mark a driver as dead, so that the thread owning it starts a new one for its next scenario.
+    public static void markDead(Playwright pw) {
+        if (pw != null && activeDrivers.contains(pw)) {
+            deadDrivers.add(pw);
+        }
+    }
+
+    // Called with the failure of a Playwright call on this thread: once the driver process has crashed or was
+    // closed, every call fails with a closed connection or target.
+    public static void reportFailure(PlaywrightException e) {
+        String message = String.valueOf(e.getMessage());
+        if (message.contains("Playwright connection closed") || message.contains("has been closed")) {
+            logger.log(Level.FINE, "Playwright driver of thread " + Thread.currentThread().getName()
+                    + " is closed.", e);
+            markDead(playwright.get());
+        }
+    }
+
     // Closes and removes the Playwright instance for the current thread.
     public void cleanup() {
+        Playwright current = playwright.get();
         try {
-            if (playwright.get() != null) {
-                playwright.get().close();
+            if (current != null) {
+                activeDrivers.remove(current);
+                deadDrivers.remove(current);
+                current.close();
             }
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to close Playwright driver.", e);
         } finally {
             playwright.remove();
         }
     }
+
+    // Closes the drivers of all worker threads. Called once from @AfterAll, and from the JVM shutdown hook.
+    public static void shutdownAll() {
+        for (Playwright driver : activeDrivers) {
+            try {
+                driver.close();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to close Playwright driver.", e);
+            } finally {
+                activeDrivers.remove(driver);
+                deadDrivers.remove(driver);
+            }
+        }
+    }
 }
@@ -0,0 +1,205 @@
+package manager;
+
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wall-clock durations of scenarios from previous runs, kept in a small local history file
+ * (.scenario-history/durations.properties, keyed by "feature uri:line").
+ * The runner uses it to start the longest scenarios first; the hooks record the durations of this run.
+ * Each stored duration is a moving average, so one slow run doesn't reorder the whole suite.
+ */
+public final class ScenarioHistory {
+
+    private static final Logger logger = Logger.getLogger(ScenarioHistory.class.getName());
+
+    // Worker JVMs run in their own directory, they get the project directory as -Dproject.dir
+    private static final Path HISTORY_FILE = Paths.get(
+            System.getProperty("project.dir", System.getProperty("user.dir"))).resolve(
+            System.getProperty("scenario.history.file", ".scenario-history/durations.properties"));
+
+    // Weight of the latest run in the moving average
+    private static final double ALPHA = 0.5;
+
+    // Used for scenarios without history, when there is no history of the same kind (API/web) either
+    private static final long DEFAULT_API_MILLIS = Long.getLong("scenario.default.duration.api", 5_000);
+    private static final long DEFAULT_WEB_MILLIS = Long.getLong("scenario.default.duration.web", 30_000);
+
+    // Durations from previous runs, loaded once
+    private static final Map<String, Long> previous = read(HISTORY_FILE);
+
+    // Durations measured in this run
+    private static final Map<String, Long> measured = new ConcurrentHashMap<>();
+
+    private static final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+    private static final AtomicLong lastEnd = new AtomicLong(0);
+    private static volatile long predictedMakespan = -1;
+
+    private ScenarioHistory() {
+        // utility
+    }
+
+    // Key of a scenario: its feature file (relative to the project directory) and line,
+    // e.g. "src/test/resources/features/PaypalAPIs.feature:12".
+    // Worker JVMs run in their own directory, they get the project directory as -Dproject.dir.
+    public static String key(URI uri, int line) {
+        String feature = uri.toString();
+        if ("file".equals(uri.getScheme())) {
+            Path projectDir = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")));
+            Path featurePath = Paths.get(uri);
+            feature = (featurePath.startsWith(projectDir) ? projectDir.relativize(featurePath) : featurePath)
+                    .toString().replace('\\', '/');
+        }
+        return feature + ":" + line;
+    }
+
+    /**
+     * Predicted duration of a scenario: its history if known, otherwise the median of known scenarios
+     * of the same kind (API or web), otherwise a fixed default.
+     */
+    public static long predict(String key, boolean api, Collection<String> sameKindKeys) {
+        return predict(previous, key, api, sameKindKeys);
+    }
+
+    // Same, from the given durations instead of the local history (e.g. a history file shared by CI machines)
+    public static long predict(Map<String, Long> history, String key, boolean api, Collection<String> sameKindKeys) {
+        Long known = history.get(key);
+        if (known != null) {
+            return known;
+        }
+        List<Long> sameKind = new ArrayList<>();
+        for (String other : sameKindKeys) {
+            Long duration = history.get(other);
+            if (duration != null) {
+                sameKind.add(duration);
+            }
+        }
+        if (!sameKind.isEmpty()) {
+            sameKind.sort(null);
+            return sameKind.get(sameKind.size() / 2);
+        }
+        return api ? DEFAULT_API_MILLIS : DEFAULT_WEB_MILLIS;
+    }
+
+    // Makespan of running the durations in the given order on the given number of workers,
+    // each scenario going to the worker that becomes free first (what the parallel data provider does).
+    public static long simulateMakespan(List<Long> orderedDurations, int workers) {
+        PriorityQueue<Long> freeAt = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            freeAt.add(0L);
+        }
+        long makespan = 0;
+        for (long duration : orderedDurations) {
+            long end = freeAt.poll() + duration;
+            makespan = Math.max(makespan, end);
+            freeAt.add(end);
+        }
+        return makespan;
+    }
+
+    public static void setPredictedMakespan(long millis) {
+        predictedMakespan = millis;
+    }
+
+    // Record the duration of a finished scenario of this run
+    public static void record(String key, long startMillis, long endMillis) {
+        measured.put(key, endMillis - startMillis);
+        firstStart.accumulateAndGet(startMillis, Math::min);
+        lastEnd.accumulateAndGet(endMillis, Math::max);
+    }
+
+    // Add predicted vs actual makespan to the run report, and merge this run's durations into the history file.
+    // Called once from @AfterAll. Worker JVMs leave it to the coordinator, which records every result they report;
+    // the merge is locked anyway, since runs on the same checkout (e.g. shards) may save at the same time.
+    public static void save() {
+        if (measured.isEmpty() || System.getProperty("worker.id") != null) {
+            return;
+        }
+        long actual = lastEnd.get() - firstStart.get();
+        if (predictedMakespan >= 0) {
+            RunMetrics.note("Scenario makespan: predicted " + predictedMakespan + " ms, actual " + actual + " ms");
+        } else {
+            RunMetrics.note("Scenario makespan: actual " + actual + " ms");
+        }
+
+        try {
+            Files.createDirectories(HISTORY_FILE.getParent());
+            Path lockFile = HISTORY_FILE.resolveSibling(HISTORY_FILE.getFileName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed
+                channel.lock();
+                // Merge into the file as it is now, not as it was when this run started
+                Map<String, Long> current = read(HISTORY_FILE);
+                Map<String, Long> merged = new HashMap<>(current);
+                measured.forEach((key, value) -> {
+                    Long old = current.get(key);
+                    merged.put(key, old == null ? value : Math.round(ALPHA * value + (1 - ALPHA) * old));
+                });
+                write(HISTORY_FILE, merged);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write scenario history to " + HISTORY_FILE, e);
+        }
+    }
+
+    // Location of the local history file
+    public static Path historyFile() {
+        return HISTORY_FILE;
+    }
+
+    // Replace a history file, atomically so that readers never see half of it
+    public static void write(Path file, Map<String, Long> durations) throws IOException {
+        Properties properties = new Properties();
+        durations.forEach((key, value) -> properties.setProperty(key, Long.toString(value)));
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp)) {
+            properties.store(writer, "Scenario durations in milliseconds (moving average), used to order the next run");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Read a history file; empty if it doesn't exist
+    public static Map<String, Long> read(Path file) {
+        Map<String, Long> durations = new ConcurrentHashMap<>();
+        if (!Files.exists(file)) {
+            return durations;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to read scenario history from " + file, e);
+            return durations;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            try {
+                durations.put(key, Long.parseLong(properties.getProperty(key).trim()));
+            } catch (NumberFormatException e) {
+                logger.warning("Ignoring invalid duration in scenario history for " + key);
+            }
+        }
+        return durations;
+    }
+}
@@ -0,0 +1,317 @@
+package manager;
+
+import com.microsoft.playwright.BrowserContext;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.Request;
+import io.cucumber.java.Scenario;
+import utilities.ArtifactWriter;
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hard time budget per scenario. A hung Playwright call would otherwise block its worker thread forever.
+ * When the budget runs out, the watchdog captures a thread dump, a screenshot, the current URL and the
+ * pending network requests, then closes the worker's browser context and Playwright driver, which makes the
+ * hung call throw. The scenario fails with the diagnostics attached and the worker goes on with the next one
+ * (PlaywrightManager restarts the closed driver).
+ * <p>
+ * Budgets come from config.properties: "scenario.timeout.seconds" by default, "scenario.timeout.tag.&lt;tag&gt;"
+ * for scenarios with that tag (the largest matching one wins). 0 turns the watchdog off.
+ * On the happy path the cost is one scheduled task per scenario, cancelled at the end of it.
+ */
+public class ScenarioWatchdog {
+
+    private static final Logger logger = Logger.getLogger(ScenarioWatchdog.class.getName());
+
+    // How long each diagnostic or close call may take before it is given up
+    private static final long DIAGNOSTIC_TIMEOUT_SECONDS = 10;
+
+    // One timer thread for all workers
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "scenario-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Runs the diagnostic and close calls, so a driver that doesn't answer can't hang the timer thread too
+    private static final ExecutorService diagnostics = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "scenario-watchdog-diagnostics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Cancelled timers are removed at once instead of piling up until their deadline
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // Life cycle of a watch: the scenario ends first (STOPPED) or the budget runs out first (EXPIRING, then EXPIRED)
+    private enum State {
+        RUNNING,
+        STOPPED,
+        EXPIRING,
+        EXPIRED
+    }
+
+    // What the watchdog knows about the scenario running on one worker thread
+    private static final class Watch {
+        private final String name;
+        private final Thread worker;
+        private final long budgetSeconds;
+        private final long startNanos = System.nanoTime();
+        // Requests sent by the page and not finished yet, with the time they were sent
+        private final Map<Request, Long> pendingRequests = new ConcurrentHashMap<>();
+        // Decides, once, whether the scenario stopped or expired
+        private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+        // Released when the expiry has captured its diagnostics and closed the driver
+        private final CountDownLatch expired = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> deadline;
+        private volatile Playwright playwright;
+        private volatile BrowserContext context;
+        private volatile Page page;
+        private volatile String url = "about:blank";
+        private volatile String report;
+        private volatile byte[] screenshot;
+
+        private Watch(String name, Thread worker, long budgetSeconds) {
+            this.name = name;
+            this.worker = worker;
+            this.budgetSeconds = budgetSeconds;
+        }
+    }
+
+    private static final ThreadLocal<Watch> current = new ThreadLocal<>();
+
+    private final PlaywrightManager playwrightManager;
+    private final BrowserManager browserManager;
+    private final Properties properties;
+
+    public ScenarioWatchdog(PlaywrightManager playwrightManager, BrowserManager browserManager) {
+        this.playwrightManager = playwrightManager;
+        this.browserManager = browserManager;
+        this.properties = browserManager.properties;
+    }
+
+    // Budget of the scenario in seconds: the largest budget of its tags, else the default
+    private long budgetSeconds(Scenario scenario) {
+        long budget = -1;
+        for (String tag : scenario.getSourceTagNames()) {
+            String value = properties.getProperty("scenario.timeout.tag." + tag.substring(1));
+            if (value != null) {
+                budget = Math.max(budget, Long.parseLong(value.trim()));
+            }
+        }
+        if (budget < 0) {
+            budget = Long.parseLong(System.getProperty("scenario.timeout.seconds",
+                    properties.getProperty("scenario.timeout.seconds", "0")).trim());
+        }
+        return budget;
+    }
+
+    // Start the budget of the scenario about to run on this thread. Called first thing in @Before.
+    public void start(Scenario scenario) {
+        current.remove();
+        long budget = budgetSeconds(scenario);
+        if (budget <= 0) {
+            return;
+        }
+        Watch watch = new Watch(scenario.getName(), Thread.currentThread(), budget);
+        current.set(watch);
+        watch.deadline = timer.schedule(() -> expire(watch), budget, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Pick up the driver, context and page the scenario got from its setup, so they can be inspected and closed
+     * on expiry. The request listeners only update a map, they don't call the driver.
+     */
+    public void track() {
+        Watch watch = current.get();
+        if (watch == null) {
+            return;
+        }
+        // A web scenario's browser has a driver of its own, an API scenario uses the thread's driver
+        watch.playwright = browserManager.getDriver();
+        if (watch.playwright == null && playwrightManager.isInitialized()) {
+            watch.playwright = playwrightManager.getPlaywright();
+        }
+        watch.context = browserManager.getContext();
+        Page page = browserManager.getPage();
+        if (page != null) {
+            watch.page = page;
+            page.onRequest(request -> watch.pendingRequests.put(request, System.nanoTime()));
+            page.onRequestFinished(watch.pendingRequests::remove);
+            page.onRequestFailed(watch.pendingRequests::remove);
+            page.onFrameNavigated(frame -> {
+                if (frame.parentFrame() == null) {
+                    watch.url = frame.url();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop the budget of the scenario that ran on this thread. Called last in @After.
+     * If the budget ran out, attaches the diagnostics and fails the scenario.
+     */
+    public void stop(Scenario scenario) {
+        Watch watch = current.get();
+        current.remove();
+        if (watch == null) {
+            return;
+        }
+        watch.deadline.cancel(false);
+        if (watch.state.compareAndSet(State.RUNNING, State.STOPPED)) {
+            return;
+        }
+        // The expiry is already running: wait until it is done with this thread's driver before going on.
+        // Its interrupt of this thread is expected, so it doesn't stop the wait.
+        while (watch.expired.getCount() > 0) {
+            try {
+                watch.expired.await();
+            } catch (InterruptedException ignored) {
+                // interrupt of the expiry
+            }
+        }
+        // Clear the interrupt of the expiry, so it doesn't hit the next scenario of this thread
+        Thread.interrupted();
+        if (watch.report != null) {
+            scenario.attach(watch.report, "text/plain", "Watchdog diagnostics");
+        }
+        if (watch.screenshot != null) {
+            ArtifactWriter.attach(scenario, watch.screenshot, "image/png", "Watchdog screenshot");
+        }
+        throw new AssertionError("Scenario '" + watch.name + "' exceeded its time budget of " + watch.budgetSeconds
+                + "s and was aborted by the watchdog. See the attached diagnostics.");
+    }
+
+    // Runs on the timer thread when the budget is over
+    private static void expire(Watch watch) {
+        // The scenario ended in the meantime: its driver may already run the next scenario, leave it alone
+        if (!watch.state.compareAndSet(State.RUNNING, State.EXPIRING)) {
+            return;
+        }
+        try {
+            expireNow(watch);
+        } finally {
+            watch.state.set(State.EXPIRED);
+            watch.expired.countDown();
+        }
+    }
+
+    private static void expireNow(Watch watch) {
+        logger.warning("Scenario '" + watch.name + "' on thread " + watch.worker.getName() + " exceeded its budget of "
+                + watch.budgetSeconds + "s. Capturing diagnostics and closing its browser and driver.");
+        RunMetrics.increment("watchdog.expired");
+
+        StringBuilder report = new StringBuilder();
+        report.append("Scenario: ").append(watch.name).append('\n')
+                .append("Budget: ").append(watch.budgetSeconds).append("s, running for ")
+                .append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - watch.startNanos)).append("s\n")
+                .append("Worker thread: ").append(watch.worker.getName()).append('\n')
+                .append("Current URL: ").append(watch.url).append('\n');
+
+        report.append("\nPending network requests (").append(watch.pendingRequests.size()).append("):\n");
+        long now = System.nanoTime();
+        watch.pendingRequests.forEach((request, sent) -> report.append("  ").append(request.method()).append(' ')
+                .append(request.url()).append(" (").append(TimeUnit.NANOSECONDS.toMillis(now - sent)).append(" ms)\n"));
+
+        // Screenshot first, the page is gone once the driver is closed. Best effort: the driver may be the one hanging.
+        Page page = watch.page;
+        if (page != null) {
+            watch.screenshot = bounded("screenshot", () -> page.screenshot(new Page.ScreenshotOptions()
+                    .setTimeout(TimeUnit.SECONDS.toMillis(DIAGNOSTIC_TIMEOUT_SECONDS))));
+        }
+
+        report.append("\nThread dump:\n").append(threadDump(watch.worker));
+        watch.report = report.toString();
+        writeReport(watch);
+
+        // Closing the context and then the driver makes the hung Playwright call throw on the worker thread
+        BrowserContext context = watch.context;
+        if (context != null) {
+            bounded("context close", () -> {
+                context.close();
+                return null;
+            });
+        }
+        Playwright playwright = watch.playwright;
+        if (playwright != null) {
+            // Not probed before every scenario, so the worker's PlaywrightManager is told to restart it
+            PlaywrightManager.markDead(playwright);
+            bounded("driver close", () -> {
+                playwright.close();
+                return null;
+            });
+        }
+        // For anything else that blocks interruptibly (e.g. the JDK HTTP client)
+        watch.worker.interrupt();
+    }
+
+    private static <T> T bounded(String what, Callable<T> call) {
+        Future<T> future = diagnostics.submit(call);
+        try {
+            return future.get(DIAGNOSTIC_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            future.cancel(true);
+            logger.log(Level.WARNING, "Watchdog " + what + " failed.", e);
+            return null;
+        }
+    }
+
+    // Full stacks of all threads, the hung worker first
+    private static String threadDump(Thread worker) {
+        StringBuilder dump = new StringBuilder();
+        Map<Thread, StackTraceElement[]> stacks = Thread.getAllStackTraces();
+        appendStack(dump, worker, stacks.getOrDefault(worker, worker.getStackTrace()));
+        stacks.forEach((thread, stack) -> {
+            if (thread != worker) {
+                appendStack(dump, thread, stack);
+            }
+        });
+        return dump.toString();
+    }
+
+    private static void appendStack(StringBuilder dump, Thread thread, StackTraceElement[] stack) {
+        dump.append('"').append(thread.getName()).append("\" ").append(thread.getState()).append('\n');
+        for (StackTraceElement element : stack) {
+            dump.append("    at ").append(element).append('\n');
+        }
+        dump.append('\n');
+    }
+
+    // Also on disk, in case the worker thread never gets to attach it to the report
+    private static void writeReport(Watch watch) {
+        Path dir = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")), "target", "watchdog");
+        String file = watch.name.replaceAll("[^A-Za-z0-9._-]+", "_") + "-" + System.currentTimeMillis();
+        try {
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve(file + ".txt"), watch.report, StandardCharsets.UTF_8);
+            if (watch.screenshot != null) {
+                Files.write(dir.resolve(file + ".png"), watch.screenshot);
+            }
+            RunMetrics.note("Watchdog aborted '" + watch.name + "', diagnostics in " + dir.resolve(file + ".txt"));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write watchdog diagnostics.", e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package manager;
+
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Caches the authenticated browser storage state (cookies + local storage) per user role on disk,
+ * so that scenarios tagged with "@as:<role>" start already logged in instead of driving the UI login.
+ * A cached state is valid for a configurable TTL; refreshing it is single-flight per role, so concurrent
+ * workers wait for the one login in progress instead of all logging in at once. Worker JVMs share the state
+ * directory, so the refresh is also locked through a lock file next to the state.
+ */
+public class StorageStateCache {
+
+    private static final Logger logger = Logger.getLogger(StorageStateCache.class.getName());
+
+    private static final String ROLE_TAG_PREFIX = "@as:";
+
+    // One lock per role, shared by all worker threads
+    private static final ConcurrentHashMap<String, Object> roleLocks = new ConcurrentHashMap<>();
+
+    // Login credentials of a role, and the site the role logs in to
+    public record Credentials(String site, String username, String password) {
+    }
+
+    private final Properties properties;
+    private final Path stateDir;
+    private final long ttlMillis;
+
+    public StorageStateCache(Properties properties) {
+        this.properties = properties;
+        // Not under target: the cucumber report plugin parses every *.json file there.
+        // Shared with the worker JVMs, which run in their own directory and get the project directory as -Dproject.dir
+        this.stateDir = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")),
+                ".scenario-history", "auth-state");
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(
+                Long.parseLong(properties.getProperty("auth.storage.state.ttl.minutes", "30")));
+    }
+
+    // Get the role from a "@as:<role>" tag, or null if the scenario doesn't ask for a logged-in user.
+    public static String roleFromTags(Collection<String> tags) {
+        for (String tag : tags) {
+            if (tag.startsWith(ROLE_TAG_PREFIX) && tag.length() > ROLE_TAG_PREFIX.length()) {
+                return tag.substring(ROLE_TAG_PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    // Read the credentials of a role: system property first, then environment variable, then config.properties.
+    // e.g. auth.role.admin.password / AUTH_ROLE_ADMIN_PASSWORD
+    public Credentials credentials(String role) {
+        return new Credentials(
+                lookup(role, "site"),
+                lookup(role, "username"),
+                lookup(role, "password"));
+    }
+
+    private String lookup(String role, String field) {
+        String key = "auth.role." + role + "." + field;
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.replace('.', '_').toUpperCase(Locale.ROOT));
+        }
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        if (value == null) {
+            throw new IllegalStateException("No '" + field + "' configured for role '" + role + "'. Set " + key);
+        }
+        return value;
+    }
+
+    /**
+     * Return the path of a fresh storage state for the role, logging in first if the cached one is missing or expired.
+     *
+     * @param role  The role from the "@as:<role>" tag
+     * @param login Performs the UI login and saves the storage state to the given path
+     */
+    public Path resolve(String role, Consumer<Path> login) {
+        Path statePath = stateDir.resolve(role + ".json");
+        if (isFresh(statePath)) {
+            RunMetrics.increment("auth.state.hits");
+            return statePath;
+        }
+
+        // The file lock is per JVM, so the threads of this JVM take the role lock first
+        synchronized (roleLocks.computeIfAbsent(role, k -> new Object())) {
+            try {
+                Files.createDirectories(stateDir);
+                try (FileChannel channel = FileChannel.open(stateDir.resolve(role + ".json.lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    // Released when the channel is closed
+                    channel.lock();
+                    // Another worker may have refreshed the state while this one was waiting
+                    if (isFresh(statePath)) {
+                        RunMetrics.increment("auth.state.hits");
+                        return statePath;
+                    }
+
+                    logger.info("Logging in as role '" + role + "' to refresh the cached storage state.");
+                    Path tempPath = Files.createTempFile(stateDir, role + ".", ".tmp");
+                    try {
+                        login.accept(tempPath);
+                        // Move into place only once complete, so no worker ever reads a half-written state
+                        Files.move(tempPath, statePath,
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tempPath);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to store the storage state for role: " + role, e);
+            }
+            RunMetrics.increment("auth.state.logins");
+            return statePath;
+        }
+    }
+
+    // Drop the cached state of a role, e.g. when the session turned out to be no longer valid.
+    public void invalidate(String role) {
+        try {
+            Files.deleteIfExists(stateDir.resolve(role + ".json"));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to invalidate the storage state for role: " + role, e);
+        }
+    }
+
+    private boolean isFresh(Path statePath) {
+        try {
+            return Files.exists(statePath)
+                    && System.currentTimeMillis() - Files.getLastModifiedTime(statePath).toMillis() < ttlMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
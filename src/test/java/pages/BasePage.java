@@ -2,9 +2,12 @@ package pages;
 
 import com.microsoft.playwright.Locator;
 import com.microsoft.playwright.Page;
+import com.microsoft.playwright.PlaywrightException;
+import com.microsoft.playwright.Response;
 import com.microsoft.playwright.options.AriaRole;
 import com.microsoft.playwright.options.WaitForSelectorState;
 import manager.BrowserManager;
+import utilities.CircuitBreaker;
 import com.microsoft.playwright.Download;
 
 import org.apache.pdfbox.Loader;
@@ -28,7 +31,19 @@ public class BasePage {
     }
 
     public void navigate(String url) {
-        browserManager.getPage().navigate(url);
+        // Skip at once when the site is known to be down, instead of waiting out the page load timeout again
+        CircuitBreaker breaker = CircuitBreaker.forUrl(url);
+        breaker.beforeCall();
+        Response response;
+        try {
+            response = browserManager.getPage().navigate(url);
+        } catch (PlaywrightException e) {
+            breaker.onFailure(e.getMessage().lines().findFirst().orElse(e.toString()));
+            throw e;
+        }
+        if (response != null) {
+            breaker.onStatus(response.status(), response.statusText());
+        }
     }
 
     public void waitAndClickByRole(String role, String name) {
@@ -159,14 +174,22 @@ public class BasePage {
         browserManager.getPage().locator(selector).scrollIntoViewIfNeeded();
     }
 
+    // Folder for downloaded files. Worker JVMs get their own folder through -Ddownload.dir.
+    private static Path downloadDir() {
+        String configured = System.getProperty("download.dir");
+        if (configured != null && !configured.isBlank()) {
+            return Paths.get(configured);
+        }
+        return Paths.get(System.getProperty("user.dir"), "src", "test", "resources", "downloadedFiles");
+    }
+
     /**
      * Validate that the expected text exists inside a downloaded PDF file.
      * fileName should be the filename as saved in the downloadedFiles folder (e.g. "sample.pdf").
      * Returns true if expectedContent is found (case-insensitive); false otherwise.
      */
     public boolean validateContentInsidePDFFile(String fileName, String expectedContent) {
-        Path downloadDir = Paths.get(System.getProperty("user.dir"),
-                "src", "test", "resources", "downloadedFiles");
+        Path downloadDir = downloadDir();
         Path filePath = downloadDir.resolve(fileName);
 
         if (!Files.exists(filePath)) {
@@ -202,8 +225,7 @@ public class BasePage {
     public boolean downloadAndValidate(String locator, String expectedContent) {
         try {
 
-            Path downloadDir = Paths.get(System.getProperty("user.dir"),
-                    "src", "test", "resources", "downloadedFiles");
+            Path downloadDir = downloadDir();
             if (!Files.exists(downloadDir)) {
                 Files.createDirectories(downloadDir);
             }
@@ -51,6 +51,15 @@ public class GithubLoginPage extends BasePage {
         click(signInButton);
     }
 
+    // Full UI login, used to capture the storage state of an "@as:<role>" user
+    public void login(String username, String password) {
+        navigate("https://github.com/login");
+        enterUsername(username);
+        enterPassword(password);
+        clickSignInButton();
+        getBrowserManager().getPage().waitForLoadState();
+    }
+
     public void attachToReport(String message) {
         scenarioLog(message);
     }
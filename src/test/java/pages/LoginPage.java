@@ -30,6 +30,14 @@ public class LoginPage extends BasePage {
         waitAndClick(loginButton);
     }
 
+    // Full UI login, used to capture the storage state of an "@as:<role>" user
+    public void login(String username, String password) {
+        navigate("https://www.webdriveruniversity.com/Login-Portal/index.html");
+        enterUsername(username);
+        enterPassword(password);
+        clickLoginButton();
+    }
+
     public void verifyAlertText(String expectedAlertText) {
         Assert.assertEquals(alertText, expectedAlertText, "The alert text does not match the expected text");
     }
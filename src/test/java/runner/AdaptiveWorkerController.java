@@ -0,0 +1,249 @@
+package runner;
+
+import com.sun.management.OperatingSystemMXBean;
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive worker count for -Dthread.count=auto.
+ * Starts from the number of cores and the available memory, then samples system CPU load, available memory, swap,
+ * the RSS of the Playwright driver and browser processes, and the scenario throughput at a fixed interval.
+ * It grows the number of active workers while there is head room and throughput improves,
+ * and shrinks it under CPU or memory pressure or when growing made throughput worse.
+ * Every sample and decision is added to the run metrics report.
+ */
+public final class AdaptiveWorkerController {
+
+    private static final Logger logger = Logger.getLogger(AdaptiveWorkerController.class.getName());
+
+    private static final long INTERVAL_SECONDS = Long.getLong("thread.count.auto.interval", 10);
+
+    // Assumed memory need of one worker until a real RSS sample is available
+    private static final long DEFAULT_WORKER_RSS_BYTES = 256L * 1024 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    private static final OperatingSystemMXBean os =
+            (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    private static final WorkerLimiter workers = new WorkerLimiter();
+    private static final AtomicLong completed = new AtomicLong();
+
+    private static volatile ScheduledExecutorService sampler;
+    private static int maxWorkers;
+    private static long startMillis;
+    private static long lastCompleted;
+    private static double lastThroughput = -1;
+    private static String lastDecision = "start";
+    private static long lastSwapUsed = -1;
+
+    private AdaptiveWorkerController() {
+        // utility
+    }
+
+    // Start sampling, with at most maxWorkers active workers. Called once before the scenarios run.
+    public static synchronized void start(int maxWorkers) {
+        if (sampler != null) {
+            return;
+        }
+        AdaptiveWorkerController.maxWorkers = maxWorkers;
+        int cores = Runtime.getRuntime().availableProcessors();
+        long available = availableMemory();
+        int initial = (int) Math.max(1, Math.min(Math.min(cores, maxWorkers), available / DEFAULT_WORKER_RSS_BYTES));
+        workers.setLimit(initial);
+        startMillis = System.currentTimeMillis();
+        record(String.format(Locale.ROOT, "workers.auto start: cores=%d available=%dMB max=%d -> %d workers",
+                cores, available / MB, maxWorkers, initial));
+
+        sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "adaptive-workers");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(AdaptiveWorkerController::adjust, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static boolean isStarted() {
+        return sampler != null;
+    }
+
+    // Wait until the scenario may run within the current worker count
+    public static void acquireWorker() {
+        long start = System.nanoTime();
+        workers.acquire();
+        RunMetrics.add("workers.auto.wait.ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public static void releaseWorker() {
+        completed.incrementAndGet();
+        workers.release();
+    }
+
+    // One sampling step: measure, decide, log
+    private static synchronized void adjust() {
+        long now = System.currentTimeMillis();
+        long done = completed.get();
+        double throughput = (done - lastCompleted) * 60_000.0 / (INTERVAL_SECONDS * 1000);
+        lastCompleted = done;
+
+        double cpu = os.getCpuLoad();
+        long available = availableMemory();
+        long swapUsed = os.getTotalSwapSpaceSize() - os.getFreeSwapSpaceSize();
+        boolean swapping = lastSwapUsed >= 0 && swapUsed - lastSwapUsed > 64 * MB;
+        lastSwapUsed = swapUsed;
+        long rss = childProcessesRss();
+        int active = workers.active();
+        long rssPerWorker = rss > 0 && active > 0 ? rss / active : DEFAULT_WORKER_RSS_BYTES;
+        int limit = workers.limit();
+
+        String decision;
+        if (cpu > 0.90 || available < Math.max(os.getTotalMemorySize() / 20, rssPerWorker * 3 / 2) || swapping) {
+            decision = limit > 1 ? "shrink (pressure)" : "hold (pressure, minimum reached)";
+            if (limit > 1) {
+                workers.setLimit(limit - 1);
+            }
+        } else if (lastDecision.startsWith("grow") && lastThroughput > 0 && throughput < lastThroughput * 0.95) {
+            decision = "shrink (throughput dropped after growing)";
+            workers.setLimit(Math.max(1, limit - 1));
+        } else if (workers.waiting() > 0 && limit < maxWorkers && cpu < 0.75 && available > rssPerWorker * 2) {
+            decision = "grow";
+            workers.setLimit(limit + 1);
+        } else {
+            decision = "hold";
+        }
+
+        record(String.format(Locale.ROOT,
+                "workers.auto t=%ds workers=%d active=%d waiting=%d cpu=%.0f%% available=%dMB swap=%dMB rss=%dMB throughput=%.1f/min -> %s (%d)",
+                (now - startMillis) / 1000, limit, active, workers.waiting(), cpu * 100, available / MB,
+                swapUsed / MB, rss / MB, throughput, decision, workers.limit()));
+        lastThroughput = throughput;
+        lastDecision = decision;
+    }
+
+    private static void record(String line) {
+        logger.info(line);
+        RunMetrics.note(line);
+    }
+
+    // Memory available for new processes: MemAvailable of /proc/meminfo on Linux, which unlike MemFree counts
+    // the page cache the kernel can reclaim; elsewhere the free memory reported by the OS.
+    private static long availableMemory() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", "meminfo"))) {
+                if (line.startsWith("MemAvailable:")) {
+                    // e.g. "MemAvailable:   12345678 kB"
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // no /proc, or a kernel without MemAvailable
+        }
+        return os.getFreeMemorySize();
+    }
+
+    // Resident memory of all processes started by this JVM (Playwright drivers and their browsers).
+    // Read from /proc, so it is only available on Linux; elsewhere 0.
+    private static long childProcessesRss() {
+        return ProcessHandle.current().descendants()
+                .mapToLong(process -> rssOf(process.pid()))
+                .sum();
+    }
+
+    private static long rssOf(long pid) {
+        try {
+            List<String> status = Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"));
+            for (String line : status) {
+                if (line.startsWith("VmRSS:")) {
+                    // e.g. "VmRSS:	  123456 kB"
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // process already gone, or no /proc
+        }
+        return 0;
+    }
+
+    // Counting limiter whose limit can change while workers wait on it.
+    // Lowering the limit doesn't stop running scenarios, it only admits fewer new ones.
+    private static final class WorkerLimiter {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Condition available = lock.newCondition();
+        private int limit = 1;
+        private int active;
+        private int waiting;
+
+        void acquire() {
+            lock.lock();
+            try {
+                waiting++;
+                while (active >= limit) {
+                    available.awaitUninterruptibly();
+                }
+                waiting--;
+                active++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                active--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void setLimit(int newLimit) {
+            lock.lock();
+            try {
+                limit = newLimit;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int limit() {
+            lock.lock();
+            try {
+                return limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int active() {
+            lock.lock();
+            try {
+                return active;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int waiting() {
+            lock.lock();
+            try {
+                return waiting;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package runner;
+
+import manager.ScenarioHistory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the duration histories of several shards into the history they all started from, so that the next run
+ * of every machine bin-packs its shard from the same durations.
+ * Each shard only updated the scenarios it ran, so a duration that differs from the starting history is taken from
+ * the shard that changed it; scenarios no shard ran keep their duration.
+ * <p>
+ * Usage: HistoryMerger &lt;durations.properties&gt; &lt;shard durations.properties or directory&gt;...
+ * A directory is searched for durations.properties files, e.g. the downloaded artifacts of all shards.
+ */
+public final class HistoryMerger {
+
+    private HistoryMerger() {
+        // utility
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: HistoryMerger <durations.properties> "
+                    + "<shard durations.properties or directory>...");
+            System.exit(2);
+        }
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            Path input = Paths.get(args[i]);
+            if (Files.isDirectory(input)) {
+                try (var files = Files.walk(input)) {
+                    files.filter(path -> path.getFileName().toString().equals("durations.properties"))
+                            .sorted()
+                            .forEach(inputs::add);
+                }
+            } else {
+                inputs.add(input);
+            }
+        }
+
+        Path output = Paths.get(args[0]).toAbsolutePath();
+        Map<String, Long> merged = merge(ScenarioHistory.read(output), inputs);
+        Files.createDirectories(output.getParent());
+        ScenarioHistory.write(output, merged);
+        System.out.println("Merged " + inputs.size() + " shard history file(s) with " + merged.size()
+                + " scenario(s) into " + output);
+    }
+
+    // The base history, overlaid with the durations each shard changed
+    public static Map<String, Long> merge(Map<String, Long> base, List<Path> shards) {
+        Map<String, Long> merged = new HashMap<>(base);
+        for (Path shard : shards) {
+            ScenarioHistory.read(shard).forEach((key, value) -> {
+                if (!value.equals(base.get(key))) {
+                    merged.put(key, value);
+                }
+            });
+        }
+        return merged;
+    }
+}
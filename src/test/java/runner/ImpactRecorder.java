@@ -0,0 +1,42 @@
+package runner;
+
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestCaseFinished;
+import io.cucumber.plugin.event.TestCaseStarted;
+import io.cucumber.plugin.event.TestRunFinished;
+import io.cucumber.plugin.event.TestStepStarted;
+import manager.ImpactIndex;
+import manager.ScenarioHistory;
+
+/**
+ * Cucumber plugin that records which step definition classes each scenario invokes, for the impact index.
+ * Fixture lookups are recorded by FixtureRepository on the same thread.
+ */
+public class ImpactRecorder implements ConcurrentEventListener {
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestCaseStarted.class, event -> ImpactIndex.scenarioStarted(
+                ScenarioHistory.key(event.getTestCase().getUri(), event.getTestCase().getLocation().getLine())));
+        publisher.registerHandlerFor(TestStepStarted.class, event -> {
+            if (event.getTestStep() instanceof PickleStepTestStep step) {
+                ImpactIndex.stepUsed(declaringClass(step.getCodeLocation()));
+            }
+        });
+        publisher.registerHandlerFor(TestCaseFinished.class, event -> ImpactIndex.scenarioFinished());
+        publisher.registerHandlerFor(TestRunFinished.class, event -> ImpactIndex.save());
+    }
+
+    // "step_definitions.PaypalAPI_Steps.iMakeACall(java.lang.String)" -> "step_definitions.PaypalAPI_Steps"
+    private static String declaringClass(String codeLocation) {
+        if (codeLocation == null) {
+            return "undefined";
+        }
+        int parameters = codeLocation.indexOf('(');
+        String method = parameters < 0 ? codeLocation : codeLocation.substring(0, parameters);
+        int dot = method.lastIndexOf('.');
+        return dot < 0 ? method : method.substring(0, dot);
+    }
+}
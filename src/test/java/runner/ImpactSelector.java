@@ -0,0 +1,345 @@
+package runner;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import manager.ImpactIndex;
+import utilities.RunMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Change-based test selection: runs only the scenarios affected by a change.
+ * <p>
+ * -Dimpact.base=origin/main compares against a git revision (committed, staged, unstaged and untracked changes);
+ * -Dimpact.changed=path1,path2 gives the changed files directly.
+ * A scenario is affected when its feature file changed, when a step definition class it invoked depends
+ * (directly or through page objects and utilities) on a changed class, or when a YAML key it loaded changed.
+ * Scenarios missing from the impact index always run. A change to shared infrastructure (-Dimpact.infra,
+ * by default hooks, managers, runner, BasePage, config.properties and the pom) runs everything, and so does a change
+ * to a YAML key that is loaded at startup or cached for the whole run (-Dimpact.infra.fixtures, by default the
+ * shared sections of restconfig_properties.yml, plus the keys the index recorded outside any scenario).
+ * Without any changed file everything runs too, unless -Dimpact.allow.empty=true lets the selection be empty.
+ * <p>
+ * Class dependencies come from the sources: a class depends on every project class whose name appears in it.
+ * They are cached per file in .scenario-history/impact-sources.json and only re-read for files that changed.
+ */
+public final class ImpactSelector {
+
+    private static final Logger logger = Logger.getLogger(ImpactSelector.class.getName());
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    private static final String JAVA_ROOT = "src/test/java/";
+    private static final String RESOURCES_ROOT = "src/test/resources/";
+    private static final String DEFAULT_INFRA = "src/test/java/hooks/,src/test/java/manager/,src/test/java/runner/,"
+            + "src/test/java/pages/BasePage.java,src/test/resources/properties/config.properties,pom.xml";
+    // Config sections read once per run (by the @BeforeAll hook or into static caches), so no scenario records them
+    private static final String DEFAULT_INFRA_FIXTURES = "properties/restconfig_properties.yml#CircuitBreaker,"
+            + "properties/restconfig_properties.yml#RateLimit,properties/restconfig_properties.yml#Retry,"
+            + "properties/restconfig_properties.yml#Cassettes,properties/restconfig_properties.yml#Stub,"
+            + "properties/restconfig_properties.yml#OAuthTokenCache";
+
+    private static final Pattern IDENTIFIER = Pattern.compile("\\b[A-Z][A-Za-z0-9_]*\\b");
+
+    // Cached dependencies of one source file
+    public record SourceEntry(long checksum, Set<String> references) {
+    }
+
+    private ImpactSelector() {
+        // utility
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty("impact.base") != null || System.getProperty("impact.changed") != null;
+    }
+
+    /**
+     * Select the scenarios to run.
+     *
+     * @param scenarioKeys Keys of all scenarios of this run (feature path:line)
+     * @return The affected keys, or all of them when the change can't be narrowed down safely
+     */
+    public static Set<String> select(Collection<String> scenarioKeys) {
+        Set<String> all = new LinkedHashSet<>(scenarioKeys);
+        Path projectDir = Paths.get(System.getProperty("user.dir"));
+
+        Set<String> changed;
+        String mergeBase;
+        try {
+            // Where HEAD branched off -Dimpact.base: both the changed files and the old YAML keys are taken from it,
+            // so commits added to the base branch since then don't count as changes
+            String base = System.getProperty("impact.base");
+            mergeBase = base == null ? null : git(projectDir, "merge-base", base, "HEAD").get(0);
+            changed = changedFiles(projectDir, mergeBase);
+        } catch (IOException e) {
+            return runAll(all, "could not determine the changed files (" + e.getMessage() + ")");
+        }
+        if (changed.isEmpty()) {
+            // Most likely a wrong base revision or an empty -Dimpact.changed rather than a change that affects nothing
+            if (Boolean.getBoolean("impact.allow.empty")) {
+                return report(new LinkedHashSet<>(), all.size(), "no changed files");
+            }
+            return runAll(all, "no changed files (-Dimpact.allow.empty=true to run none)");
+        }
+
+        List<String> infra = List.of(System.getProperty("impact.infra", DEFAULT_INFRA).split(","));
+        for (String file : changed) {
+            for (String prefix : infra) {
+                if (!prefix.isBlank() && file.startsWith(prefix.trim())) {
+                    return runAll(all, "shared infrastructure changed: " + file);
+                }
+            }
+            if (file.startsWith("src/") && !file.endsWith(".java") && !file.endsWith(".yml")
+                    && !file.endsWith(".yaml") && !file.endsWith(".feature")) {
+                return runAll(all, "changed file of unknown impact: " + file);
+            }
+        }
+
+        Map<String, ImpactIndex.Usage> index = ImpactIndex.load();
+        if (index.isEmpty()) {
+            return runAll(all, "no impact index yet, run the suite once without impact selection");
+        }
+
+        Set<String> changedClasses = new HashSet<>();
+        Set<String> changedFeatures = new HashSet<>();
+        Set<String> changedFixtures = new HashSet<>();
+        for (String file : changed) {
+            if (file.startsWith(JAVA_ROOT) && file.endsWith(".java")) {
+                changedClasses.add(className(file));
+            } else if (file.endsWith(".feature")) {
+                changedFeatures.add(file);
+            } else if (file.startsWith(RESOURCES_ROOT)) {
+                changedFixtures.addAll(changedYamlKeys(projectDir, mergeBase, file));
+            }
+        }
+        Set<String> infraFixtures = new HashSet<>();
+        for (String fixture : System.getProperty("impact.infra.fixtures", DEFAULT_INFRA_FIXTURES).split(",")) {
+            if (!fixture.isBlank()) {
+                infraFixtures.add(fixture.trim());
+            }
+        }
+        ImpactIndex.Usage startup = index.get(ImpactIndex.STARTUP);
+        if (startup != null) {
+            infraFixtures.addAll(startup.fixtures());
+        }
+        for (String fixture : infraFixtures) {
+            if (fixtureChanged(fixture, changedFixtures)) {
+                return runAll(all, "YAML loaded for the whole run changed: " + fixture);
+            }
+        }
+        Set<String> affectedClasses = dependents(changedClasses, sourceGraph(projectDir));
+
+        Set<String> selected = new LinkedHashSet<>();
+        for (String key : all) {
+            ImpactIndex.Usage usage = index.get(key);
+            String feature = key.substring(0, key.lastIndexOf(':'));
+            if (usage == null
+                    || changedFeatures.contains(feature)
+                    || usage.steps().stream().anyMatch(affectedClasses::contains)
+                    || usage.fixtures().stream().anyMatch(fixture -> fixtureChanged(fixture, changedFixtures))) {
+                selected.add(key);
+            }
+        }
+        return report(selected, all.size(), changed.size() + " changed file(s)");
+    }
+
+    private static Set<String> runAll(Set<String> all, String reason) {
+        return report(all, all.size(), reason + ", running all scenarios");
+    }
+
+    private static Set<String> report(Set<String> selected, int total, String reason) {
+        String line = "Impact selection: " + selected.size() + " of " + total + " scenarios (" + reason + ")";
+        logger.info(line);
+        RunMetrics.note(line);
+        return selected;
+    }
+
+    // Changed files relative to the project directory, from -Dimpact.changed or from git
+    private static Set<String> changedFiles(Path projectDir, String mergeBase) throws IOException {
+        Set<String> changed = new TreeSet<>();
+        String explicit = System.getProperty("impact.changed");
+        if (explicit != null) {
+            for (String file : explicit.split(",")) {
+                if (!file.isBlank()) {
+                    changed.add(file.trim().replace('\\', '/'));
+                }
+            }
+            return changed;
+        }
+        // Committed and uncommitted changes since the merge base
+        changed.addAll(git(projectDir, "diff", "--name-only", "--relative", mergeBase));
+        changed.addAll(git(projectDir, "ls-files", "--others", "--exclude-standard"));
+        return changed;
+    }
+
+    private static List<String> git(Path projectDir, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(projectDir.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            if (!process.waitFor(1, TimeUnit.MINUTES) || process.exitValue() != 0) {
+                throw new IOException("'" + String.join(" ", command) + "' failed: " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running git", e);
+        }
+        return output.lines().filter(line -> !line.isBlank()).toList();
+    }
+
+    // "src/test/java/pages/ContactUsPage.java" -> "pages.ContactUsPage"
+    private static String className(String file) {
+        return file.substring(JAVA_ROOT.length(), file.length() - ".java".length()).replace('/', '.');
+    }
+
+    // Changed top-level keys of a YAML file, as "classpath path#key" ("#*" when the keys can't be compared)
+    private static Set<String> changedYamlKeys(Path projectDir, String mergeBase, String file) {
+        String resource = file.substring(RESOURCES_ROOT.length());
+        Path current = projectDir.resolve(file);
+        if (mergeBase == null || !Files.exists(current)) {
+            return Set.of(resource + "#*");
+        }
+        try {
+            JsonNode before = YAML_MAPPER.readTree(String.join("\n", git(projectDir, "show", mergeBase + ":./" + file)));
+            JsonNode after = YAML_MAPPER.readTree(current.toFile());
+            Set<String> keys = new TreeSet<>();
+            for (JsonNode node : List.of(before, after)) {
+                for (Iterator<String> it = node.fieldNames(); it.hasNext(); ) {
+                    String key = it.next();
+                    if (!Objects.equals(before.get(key), after.get(key))) {
+                        keys.add(resource + "#" + key);
+                    }
+                }
+            }
+            return keys;
+        } catch (IOException | RuntimeException e) {
+            // New file, or not a map at the top level
+            return Set.of(resource + "#*");
+        }
+    }
+
+    private static boolean fixtureChanged(String fixture, Set<String> changedFixtures) {
+        if (changedFixtures.contains(fixture)) {
+            return true;
+        }
+        String file = fixture.substring(0, fixture.indexOf('#') + 1);
+        return changedFixtures.contains(file + "*") || (fixture.endsWith("#*") && changedFixtures.stream().anyMatch(c -> c.startsWith(file)));
+    }
+
+    // Class -> project classes it references, rebuilt only for source files whose content changed
+    private static Map<String, Set<String>> sourceGraph(Path projectDir) {
+        Path javaRoot = projectDir.resolve(JAVA_ROOT);
+        Path cacheFile = ImpactIndex.indexFile().resolveSibling("impact-sources.json");
+        Map<String, SourceEntry> cache = new TreeMap<>();
+        if (Files.exists(cacheFile)) {
+            try {
+                cache = JSON_MAPPER.readValue(cacheFile.toFile(), new TypeReference<TreeMap<String, SourceEntry>>() {
+                });
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Rebuilding unreadable source cache " + cacheFile, e);
+            }
+        }
+
+        Map<String, Path> sources = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(javaRoot)) {
+            files.filter(path -> path.toString().endsWith(".java"))
+                    .forEach(path -> sources.put(className(JAVA_ROOT + javaRoot.relativize(path).toString().replace('\\', '/')), path));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to list the sources under " + javaRoot, e);
+        }
+        Map<String, String> bySimpleName = new HashMap<>();
+        for (String className : sources.keySet()) {
+            bySimpleName.put(className.substring(className.lastIndexOf('.') + 1), className);
+        }
+
+        Map<String, SourceEntry> updated = new TreeMap<>();
+        int rescanned = 0;
+        for (Map.Entry<String, Path> source : sources.entrySet()) {
+            try {
+                byte[] content = Files.readAllBytes(source.getValue());
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                SourceEntry entry = cache.get(source.getKey());
+                if (entry == null || entry.checksum() != crc.getValue()) {
+                    Set<String> references = new TreeSet<>();
+                    Matcher matcher = IDENTIFIER.matcher(new String(content, StandardCharsets.UTF_8));
+                    while (matcher.find()) {
+                        String referenced = bySimpleName.get(matcher.group());
+                        if (referenced != null && !referenced.equals(source.getKey())) {
+                            references.add(referenced);
+                        }
+                    }
+                    entry = new SourceEntry(crc.getValue(), references);
+                    rescanned++;
+                }
+                updated.put(source.getKey(), entry);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to read " + source.getValue(), e);
+            }
+        }
+        if (rescanned > 0) {
+            try {
+                Files.createDirectories(cacheFile.getParent());
+                JSON_MAPPER.writeValue(cacheFile.toFile(), updated);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to write source cache " + cacheFile, e);
+            }
+        }
+        RunMetrics.add("impact.sources.rescanned", rescanned);
+
+        Map<String, Set<String>> graph = new HashMap<>();
+        updated.forEach((className, entry) -> graph.put(className, entry.references()));
+        return graph;
+    }
+
+    // The changed classes and every class that depends on one of them, directly or indirectly
+    private static Set<String> dependents(Set<String> changedClasses, Map<String, Set<String>> graph) {
+        Map<String, Set<String>> reverse = new HashMap<>();
+        graph.forEach((className, references) -> {
+            for (String referenced : references) {
+                reverse.computeIfAbsent(referenced, k -> new HashSet<>()).add(className);
+            }
+        });
+        Set<String> affected = new HashSet<>(changedClasses);
+        Deque<String> toVisit = new ArrayDeque<>(changedClasses);
+        while (!toVisit.isEmpty()) {
+            for (String dependent : reverse.getOrDefault(toVisit.poll(), Set.of())) {
+                if (affected.add(dependent)) {
+                    toVisit.add(dependent);
+                }
+            }
+        }
+        return affected;
+    }
+}
@@ -0,0 +1,110 @@
+package runner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the cucumber.json reports of several shards into one, for maven-cucumber-reporting.
+ * Features that ran on more than one shard are combined into one feature, with their scenarios in file order.
+ * <p>
+ * Usage: ReportMerger &lt;output.json&gt; &lt;shard report or directory&gt;...
+ * A directory is searched for cucumber.json files, e.g. the downloaded artifacts of all shards.
+ */
+public final class ReportMerger {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    private ReportMerger() {
+        // utility
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ReportMerger <output.json> <shard cucumber.json or directory>...");
+            System.exit(2);
+        }
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            Path input = Paths.get(args[i]);
+            if (Files.isDirectory(input)) {
+                try (var files = Files.walk(input)) {
+                    files.filter(path -> path.getFileName().toString().equals("cucumber.json"))
+                            .sorted()
+                            .forEach(inputs::add);
+                }
+            } else {
+                inputs.add(input);
+            }
+        }
+
+        write(Paths.get(args[0]), inputs);
+    }
+
+    // Merge the reports and write the result to the output file
+    public static void write(Path output, List<Path> reports) throws IOException {
+        ArrayNode merged = merge(reports);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValue(output.toFile(), merged);
+        System.out.println("Merged " + reports.size() + " report(s) with " + merged.size() + " feature(s) into " + output);
+    }
+
+    // Merge the features of all reports, keyed by feature uri
+    public static ArrayNode merge(List<Path> reports) throws IOException {
+        Map<String, ObjectNode> features = new LinkedHashMap<>();
+        Map<String, List<List<JsonNode>>> scenarios = new LinkedHashMap<>();
+
+        for (Path report : reports) {
+            JsonNode root = JSON_MAPPER.readTree(report.toFile());
+            if (root == null || !root.isArray()) {
+                throw new IOException("Not a cucumber.json report: " + report);
+            }
+            for (JsonNode feature : root) {
+                String uri = feature.path("uri").asText(feature.path("id").asText());
+                features.putIfAbsent(uri, ((ObjectNode) feature).deepCopy());
+                scenarios.computeIfAbsent(uri, k -> new ArrayList<>()).addAll(scenarioGroups(feature.path("elements")));
+            }
+        }
+
+        ArrayNode merged = JSON_MAPPER.createArrayNode();
+        features.keySet().stream().sorted().forEach(uri -> {
+            ObjectNode feature = features.get(uri);
+            ArrayNode elements = feature.putArray("elements");
+            scenarios.get(uri).stream()
+                    .sorted(Comparator.comparingInt(group -> group.get(group.size() - 1).path("line").asInt()))
+                    .forEach(elements::addAll);
+            merged.add(feature);
+        });
+        return merged;
+    }
+
+    // A scenario with the background element(s) that precede it, which belong together in the report
+    private static List<List<JsonNode>> scenarioGroups(JsonNode elements) {
+        List<List<JsonNode>> groups = new ArrayList<>();
+        List<JsonNode> current = new ArrayList<>();
+        for (JsonNode element : elements) {
+            current.add(element);
+            if (!"background".equals(element.path("type").asText())) {
+                groups.add(current);
+                current = new ArrayList<>();
+            }
+        }
+        if (!current.isEmpty()) {
+            groups.add(current);
+        }
+        return groups;
+    }
+}
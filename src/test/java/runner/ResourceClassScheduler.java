@@ -0,0 +1,133 @@
+package runner;
+
+import utilities.RunMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Admits scenarios through separate concurrency limits per resource class:
+ * web scenarios are bound by CPU and memory for browsers, API scenarios only wait on I/O and can run many more at once.
+ * The data provider pool is sized for both limits together, and scenarios of the two classes are interleaved,
+ * so a mixed suite keeps both classes busy without launching more browsers than the machine can handle.
+ * <p>
+ * -Dthread.count.web (default: -Dthread.count if given, else half the cores) and -Dthread.count.api (default: 32)
+ * set the limits.
+ * If -Dthread.count is given, it still caps the total number of worker threads. Without any of these the suite
+ * runs on a single worker thread, as it always has.
+ * With -Dthread.count=auto the number of active workers adapts to the machine, see AdaptiveWorkerController.
+ */
+public final class ResourceClassScheduler {
+
+    private static final Logger logger = Logger.getLogger(ResourceClassScheduler.class.getName());
+
+    public enum ResourceClass {
+        WEB,
+        API;
+
+        // Same classification as Hooks.setup: "@api" scenarios don't need a browser
+        public static ResourceClass of(Collection<String> tags) {
+            return tags.contains("@api") ? API : WEB;
+        }
+
+        String metricName() {
+            return "scheduler." + name().toLowerCase();
+        }
+    }
+
+    // With an explicit -Dthread.count every thread may run a web scenario, as before the limits existed
+    private static final int WEB_LIMIT = Integer.getInteger("thread.count.web", explicitThreadCount() > 0
+            ? explicitThreadCount() : Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int API_LIMIT = Integer.getInteger("thread.count.api", 32);
+
+    private static final Semaphore webPermits = new Semaphore(WEB_LIMIT, true);
+    private static final Semaphore apiPermits = new Semaphore(API_LIMIT, true);
+
+    private ResourceClassScheduler() {
+        // utility
+    }
+
+    public static int limit(ResourceClass resourceClass) {
+        return resourceClass == ResourceClass.WEB ? WEB_LIMIT : API_LIMIT;
+    }
+
+    // Number of data provider threads: -Dthread.count if given, else enough for both classes to run at their limit
+    // when a limit is set explicitly, else 1. In auto mode this is the upper bound, the number of active workers is
+    // adjusted below it.
+    public static int poolSize() {
+        if (explicitThreadCount() > 0) {
+            return explicitThreadCount();
+        }
+        if (isAutoThreadCount() || System.getProperty("thread.count.web") != null
+                || System.getProperty("thread.count.api") != null) {
+            return WEB_LIMIT + API_LIMIT;
+        }
+        return 1;
+    }
+
+    // -Dthread.count as a number, or 0 when it isn't set (or is "auto")
+    private static int explicitThreadCount() {
+        String threadCount = System.getProperty("thread.count");
+        if (threadCount == null || threadCount.isBlank() || isAutoThreadCount()) {
+            return 0;
+        }
+        return Integer.parseInt(threadCount.trim());
+    }
+
+    public static boolean isAutoThreadCount() {
+        return "auto".equalsIgnoreCase(System.getProperty("thread.count", "").trim());
+    }
+
+    // Wait for a slot of the scenario's class, recording how long the scenario was queued.
+    // In auto mode the worker slot comes first, so a thread waiting for one doesn't hold a class slot meanwhile.
+    public static void acquire(ResourceClass resourceClass) {
+        if (AdaptiveWorkerController.isStarted()) {
+            AdaptiveWorkerController.acquireWorker();
+        }
+        long start = System.nanoTime();
+        permits(resourceClass).acquireUninterruptibly();
+        long waitMillis = (System.nanoTime() - start) / 1_000_000;
+
+        String metric = resourceClass.metricName();
+        RunMetrics.increment(metric + ".admitted");
+        RunMetrics.add(metric + ".wait.ms", waitMillis);
+        RunMetrics.max(metric + ".wait.ms", waitMillis);
+    }
+
+    public static void release(ResourceClass resourceClass) {
+        permits(resourceClass).release();
+        if (AdaptiveWorkerController.isStarted()) {
+            AdaptiveWorkerController.releaseWorker();
+        }
+    }
+
+    private static Semaphore permits(ResourceClass resourceClass) {
+        return resourceClass == ResourceClass.WEB ? webPermits : apiPermits;
+    }
+
+    /**
+     * Interleave the two classes in proportion to their limits, keeping the order within each class.
+     * The pool picks scenarios in this order, so its threads are spread over both classes
+     * instead of all waiting for browser slots while API scenarios sit in the queue.
+     */
+    public static <T> List<T> interleave(List<T> web, List<T> api) {
+        List<T> merged = new ArrayList<>(web.size() + api.size());
+        int w = 0;
+        int a = 0;
+        while (w < web.size() || a < api.size()) {
+            // Take from the class that has used the smaller share of its limit so far
+            boolean takeWeb = a >= api.size()
+                    || (w < web.size() && (double) w / WEB_LIMIT <= (double) a / API_LIMIT);
+            merged.add(takeWeb ? web.get(w++) : api.get(a++));
+        }
+        return merged;
+    }
+
+    public static void logLimits() {
+        logger.info("Scenario concurrency limits: web=" + WEB_LIMIT + ", api=" + API_LIMIT
+                + ", worker threads=" + poolSize());
+    }
+}
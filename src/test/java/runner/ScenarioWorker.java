@@ -0,0 +1,107 @@
+package runner;
+
+import io.cucumber.testng.Pickle;
+import io.cucumber.testng.PickleWrapper;
+import io.cucumber.testng.TestNGCucumberRunner;
+import manager.ScenarioHistory;
+import org.testng.SkipException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Worker JVM of the coordinator mode, started by WorkerCoordinator (never by hand).
+ * Runs scenarios one at a time, asking the coordinator for the next one over a loopback socket.
+ * <p>
+ * Protocol, one tab-separated message per line:
+ * worker "HELLO id", then repeatedly "NEXT"; coordinator "RUN key" or "DONE";
+ * after each scenario the worker sends "RESULT key status millis message".
+ */
+public final class ScenarioWorker {
+
+    private static final Logger logger = Logger.getLogger(ScenarioWorker.class.getName());
+
+    private ScenarioWorker() {
+        // entry point only
+    }
+
+    public static void main(String[] args) throws IOException {
+        int id = Integer.getInteger("worker.id");
+        int port = Integer.getInteger("worker.port");
+
+        // Same Cucumber options as TestRunner; the features and filters come from the forwarded system properties
+        TestNGCucumberRunner runner = new TestNGCucumberRunner(TestRunner.class);
+        Map<String, Pickle> pickles = new HashMap<>();
+        for (Object[] row : runner.provideScenarios()) {
+            Pickle pickle = ((PickleWrapper) row[0]).getPickle();
+            pickles.put(ScenarioHistory.key(pickle.getUri(), pickle.getLine()), pickle);
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            out.println("HELLO\t" + id);
+            while (true) {
+                out.println("NEXT");
+                String line = in.readLine();
+                if (line == null || line.equals("DONE")) {
+                    break;
+                }
+                String key = line.substring("RUN\t".length());
+                out.println(run(runner, pickles.get(key), key));
+            }
+        } finally {
+            // Runs the @AfterAll hooks and writes this worker's reports
+            runner.finish();
+        }
+        logger.info("Worker " + id + " finished.");
+        System.exit(0);
+    }
+
+    private static String run(TestNGCucumberRunner runner, Pickle pickle, String key) {
+        if (pickle == null) {
+            return result(key, WorkerCoordinator.Status.FAILED, 0, "Scenario not found in worker: " + key);
+        }
+        long start = System.currentTimeMillis();
+        try {
+            runner.runScenario(pickle);
+            return result(key, WorkerCoordinator.Status.PASSED, System.currentTimeMillis() - start, "");
+        } catch (SkipException e) {
+            return result(key, WorkerCoordinator.Status.SKIPPED, System.currentTimeMillis() - start, String.valueOf(e.getMessage()));
+        } catch (Throwable t) {
+            return result(key, WorkerCoordinator.Status.FAILED, System.currentTimeMillis() - start, t.toString());
+        }
+    }
+
+    private static String result(String key, WorkerCoordinator.Status status, long millis, String message) {
+        return "RESULT\t" + key + "\t" + status + "\t" + millis + "\t" + escape(message);
+    }
+
+    // Messages travel on one line
+    static String escape(String message) {
+        return message.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "");
+    }
+
+    static String unescape(String message) {
+        StringBuilder sb = new StringBuilder(message.length());
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '\\' && i + 1 < message.length()) {
+                char next = message.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package runner;
+
+import manager.ScenarioHistory;
+import utilities.RunMetrics;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the scenarios across CI machines: -Dshard.index (0-based) of -Dshard.total.
+ * Every machine must compute the same partition from its own copy of the suite, so the split only uses inputs that
+ * are the same everywhere:
+ * <ul>
+ *     <li>By default, each scenario goes to the shard given by a hash of its key (feature path and line).</li>
+ *     <li>With a duration history, scenarios are assigned longest first, each to the shard with the least
+ *     predicted time so far (greedy bin-packing), so shards finish close to each other. The history is
+ *     -Dshard.history=&lt;file&gt;, or else the local .scenario-history/durations.properties if there is one.</li>
+ *     <li>Without either, each scenario goes to the shard given by a hash of its key (feature path and line).</li>
+ * </ul>
+ * Every machine must split from the same history: each one only records the scenarios of its own shard, so after a
+ * run the shard histories are merged (see {@link HistoryMerger}) and restored on every machine, e.g. from the CI
+ * cache. A fingerprint of the scenario keys and of the history is logged, so machines that split differently can be
+ * spotted by comparing it.
+ */
+public final class ShardPartitioner {
+
+    private static final Logger logger = Logger.getLogger(ShardPartitioner.class.getName());
+
+    private ShardPartitioner() {
+        // utility
+    }
+
+    public static int shardTotal() {
+        return Integer.getInteger("shard.total", 1);
+    }
+
+    public static int shardIndex() {
+        return Integer.getInteger("shard.index", 0);
+    }
+
+    public static boolean isSharded() {
+        return shardTotal() > 1;
+    }
+
+    // The history file of -Dshard.history (relative to the project directory), else the local one if it exists,
+    // else null
+    private static Path sharedHistory() {
+        String file = System.getProperty("shard.history");
+        if (file == null || file.isBlank()) {
+            Path local = ScenarioHistory.historyFile();
+            return Files.exists(local) ? local : null;
+        }
+        return Paths.get(System.getProperty("project.dir", System.getProperty("user.dir"))).resolve(file.trim());
+    }
+
+    /**
+     * Select the items of this machine's shard.
+     *
+     * @param items All scenarios, in any order
+     * @param key   Stable scenario key (feature path and line)
+     * @param api   Whether a scenario is an API scenario, for predicting durations missing from the shared history
+     * @return The items of shard -Dshard.index, in the given order
+     */
+    public static <T> List<T> select(List<T> items, Function<T, String> key, Predicate<T> api) {
+        int total = shardTotal();
+        int index = shardIndex();
+        if (index < 0 || index >= total) {
+            throw new IllegalArgumentException("shard.index must be between 0 and " + (total - 1) + ", but was " + index);
+        }
+
+        List<String> keys = items.stream().map(key).sorted().toList();
+        Path historyFile = sharedHistory();
+        Set<T> mine = Collections.newSetFromMap(new IdentityHashMap<>());
+        String split;
+        if (historyFile == null) {
+            for (T item : items) {
+                if (Math.floorMod(hash(key.apply(item)), total) == index) {
+                    mine.add(item);
+                }
+            }
+            split = "hash of the scenario keys";
+        } else {
+            Map<String, Long> history = ScenarioHistory.read(historyFile);
+            if (history.isEmpty()) {
+                logger.warning("Scenario history " + historyFile + " is missing or empty, all scenarios get "
+                        + "the default duration.");
+            }
+            List<String> apiKeys = new ArrayList<>();
+            List<String> webKeys = new ArrayList<>();
+            for (T item : items) {
+                (api.test(item) ? apiKeys : webKeys).add(key.apply(item));
+            }
+            Map<T, Long> durations = new IdentityHashMap<>();
+            for (T item : items) {
+                boolean isApi = api.test(item);
+                durations.put(item, ScenarioHistory.predict(history, key.apply(item), isApi, isApi ? apiKeys : webKeys));
+            }
+            long[] load = binPack(items, key, durations, total, index, mine);
+            StringBuilder loads = new StringBuilder();
+            for (int shard = 0; shard < total; shard++) {
+                loads.append(shard == 0 ? "" : ", ").append(shard).append('=').append(load[shard]).append(" ms");
+            }
+            split = "durations of " + historyFile + " (history " + fingerprint(history.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue()).sorted().toList()) + "), predicted shard times: " + loads;
+        }
+
+        String line = String.format(Locale.ROOT, "Shard %d of %d: %d of %d scenarios (scenarios %s), split by %s",
+                index, total, mine.size(), items.size(), fingerprint(keys), split);
+        logger.info(line);
+        RunMetrics.note(line);
+
+        // Keep the caller's order (e.g. longest first) within the shard
+        List<T> ordered = new ArrayList<>(mine.size());
+        for (T item : items) {
+            if (mine.contains(item)) {
+                ordered.add(item);
+            }
+        }
+        return ordered;
+    }
+
+    // Longest first, each to the least loaded shard; ties broken by key. Returns the load of every shard.
+    private static <T> long[] binPack(List<T> items, Function<T, String> key, Map<T, Long> durations,
+                                      int total, int index, Set<T> mine) {
+        List<T> byDuration = new ArrayList<>(items);
+        byDuration.sort(Comparator.comparingLong((T item) -> durations.get(item)).reversed().thenComparing(key));
+
+        long[] load = new long[total];
+        for (T item : byDuration) {
+            int target = 0;
+            for (int shard = 1; shard < total; shard++) {
+                if (load[shard] < load[target]) {
+                    target = shard;
+                }
+            }
+            load[target] += durations.get(item);
+            if (target == index) {
+                mine.add(item);
+            }
+        }
+        return load;
+    }
+
+    // Same on every JVM and machine (unlike identity hashes), and spreads similar keys
+    private static int hash(String key) {
+        CRC32 crc = new CRC32();
+        crc.update(key.getBytes(StandardCharsets.UTF_8));
+        return (int) crc.getValue();
+    }
+
+    // Short digest of the sorted lines, to compare what the machines split
+    private static String fingerprint(List<String> lines) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String line : lines) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -2,10 +2,27 @@ package runner;
 
 import io.cucumber.testng.AbstractTestNGCucumberTests;
 import io.cucumber.testng.CucumberOptions;
+import io.cucumber.testng.FeatureWrapper;
+import io.cucumber.testng.Pickle;
+import io.cucumber.testng.PickleWrapper;
+import manager.BrowserManager;
+import manager.ScenarioHistory;
 import org.testng.ITestContext;
+import org.testng.SkipException;
+import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import runner.ResourceClassScheduler.ResourceClass;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,35 +32,194 @@ import java.util.logging.Logger;
         tags = "@api and not @ignore",
         plugin = {"pretty",
                 "html:target/site/cucumber-pretty",
-                "json:target/cucumber.json"
+                "json:target/cucumber.json",
+                "runner.ImpactRecorder"
         }
 )
 
 public class TestRunner extends AbstractTestNGCucumberTests {
 
+    // Set in coordinator mode (-Dworkers.jvm=N), where the scenarios run in worker JVMs
+    private static volatile WorkerCoordinator coordinator;
+
     // DataProvider Method
     // Used for parallel execution, allowing multiple tests to run simultaneous
     @Override
     @DataProvider(parallel = true)
     public Object[][] scenarios() {
-        return super.scenarios(); // Provide data for the tests, enabling parallel execution
+        Object[][] scenarios = super.scenarios(); // Provide data for the tests, enabling parallel execution
+        scenarios = schedule(scenarios);
+        if (WorkerCoordinator.isEnabled()) {
+            startWorkers(scenarios);
+        } else {
+            warmUpBrowsers(scenarios);
+        }
+        return scenarios;
+    }
+
+    // Hand the scheduled scenarios to worker JVMs; runScenario then only waits for their results
+    private void startWorkers(Object[][] scenarios) {
+        List<String> keys = new ArrayList<>();
+        for (Object[] row : scenarios) {
+            keys.add(key(((PickleWrapper) row[0]).getPickle()));
+        }
+        WorkerCoordinator workers = new WorkerCoordinator(keys, WorkerCoordinator.workerCount());
+        try {
+            workers.start();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start the worker JVMs", e);
+        }
+        coordinator = workers;
+    }
+
+    // Run each scenario only once a slot of its resource class (web or API) is free
+    @Override
+    @Test(groups = "cucumber", description = "Runs Cucumber Scenarios", dataProvider = "scenarios")
+    public void runScenario(PickleWrapper pickleWrapper, FeatureWrapper featureWrapper) {
+        if (coordinator != null) {
+            runOnWorker(pickleWrapper.getPickle());
+            return;
+        }
+        ResourceClass resourceClass = ResourceClass.of(pickleWrapper.getPickle().getTags());
+        ResourceClassScheduler.acquire(resourceClass);
+        try {
+            super.runScenario(pickleWrapper, featureWrapper);
+        } finally {
+            ResourceClassScheduler.release(resourceClass);
+        }
+    }
+
+    // Report the result of a scenario that ran in a worker JVM as the result of this test
+    private void runOnWorker(Pickle pickle) {
+        WorkerCoordinator.Result result = coordinator.await(key(pickle));
+        switch (result.status()) {
+            case FAILED -> throw new AssertionError("Scenario failed in worker JVM: " + result.message());
+            case SKIPPED -> throw new SkipException(result.message());
+            default -> {
+                // passed
+            }
+        }
+    }
+
+    // Order the scenarios by their duration in previous runs, longest first, so that a long scenario
+    // doesn't start last and keep the run going while all other workers are idle.
+    // Web and API scenarios are then interleaved, so both resource classes are kept busy.
+    private Object[][] schedule(Object[][] scenarios) {
+        // -Dimpact.base / -Dimpact.changed: run only the scenarios affected by the change
+        if (ImpactSelector.isEnabled()) {
+            Set<String> affected = ImpactSelector.select(Arrays.stream(scenarios)
+                    .map(row -> key(((PickleWrapper) row[0]).getPickle()))
+                    .toList());
+            scenarios = Arrays.stream(scenarios)
+                    .filter(row -> affected.contains(key(((PickleWrapper) row[0]).getPickle())))
+                    .toArray(Object[][]::new);
+        }
+
+        List<String> apiKeys = new ArrayList<>();
+        List<String> webKeys = new ArrayList<>();
+        for (Object[] row : scenarios) {
+            Pickle pickle = ((PickleWrapper) row[0]).getPickle();
+            (ResourceClass.of(pickle.getTags()) == ResourceClass.API ? apiKeys : webKeys).add(key(pickle));
+        }
+
+        Map<Object[], Long> predicted = new IdentityHashMap<>();
+        for (Object[] row : scenarios) {
+            Pickle pickle = ((PickleWrapper) row[0]).getPickle();
+            boolean api = ResourceClass.of(pickle.getTags()) == ResourceClass.API;
+            predicted.put(row, ScenarioHistory.predict(key(pickle), api, api ? apiKeys : webKeys));
+        }
+
+        // -Dshard.index / -Dshard.total: keep only this machine's part of the suite
+        if (ShardPartitioner.isSharded()) {
+            scenarios = ShardPartitioner.select(Arrays.asList(scenarios),
+                    row -> key(((PickleWrapper) row[0]).getPickle()),
+                    row -> ResourceClass.of(((PickleWrapper) row[0]).getPickle().getTags()) == ResourceClass.API)
+                    .toArray(new Object[0][]);
+        }
+
+        // Stable sort, scenarios with the same prediction keep their file order
+        Object[][] ordered = scenarios.clone();
+        Arrays.sort(ordered, Comparator.comparingLong((Object[] row) -> predicted.get(row)).reversed());
+
+        List<Object[]> web = new ArrayList<>();
+        List<Object[]> api = new ArrayList<>();
+        for (Object[] row : ordered) {
+            (ResourceClass.of(((PickleWrapper) row[0]).getPickle().getTags()) == ResourceClass.API ? api : web).add(row);
+        }
+
+        // Both classes run side by side, each on at most its own limit of workers
+        int poolSize = ResourceClassScheduler.poolSize();
+        long webMakespan = ScenarioHistory.simulateMakespan(durations(web, predicted),
+                Math.min(poolSize, ResourceClassScheduler.limit(ResourceClass.WEB)));
+        long apiMakespan = ScenarioHistory.simulateMakespan(durations(api, predicted),
+                Math.min(poolSize, ResourceClassScheduler.limit(ResourceClass.API)));
+        ScenarioHistory.setPredictedMakespan(Math.max(webMakespan, apiMakespan));
+
+        return ResourceClassScheduler.interleave(web, api).toArray(new Object[0][]);
+    }
+
+    private static List<Long> durations(List<Object[]> rows, Map<Object[], Long> predicted) {
+        List<Long> durations = new ArrayList<>();
+        for (Object[] row : rows) {
+            durations.add(predicted.get(row));
+        }
+        return durations;
+    }
+
+    private static String key(Pickle pickle) {
+        return ScenarioHistory.key(pickle.getUri(), pickle.getLine());
+    }
+
+    // Start launching browsers in the background, one per worker thread that will run web scenarios
+    private void warmUpBrowsers(Object[][] scenarios) {
+        long webScenarios = Arrays.stream(scenarios)
+                .map(row -> ((PickleWrapper) row[0]).getPickle().getTags())
+                .filter(tags -> !tags.contains("@api"))
+                .count();
+        int webSlots = Math.min(ResourceClassScheduler.poolSize(), ResourceClassScheduler.limit(ResourceClass.WEB));
+        int warmCount = (int) Math.min(webScenarios, webSlots);
+        if (warmCount > 0) {
+            new BrowserManager().warmUpBrowserPool(warmCount);
+        }
     }
 
     // Parallel Setup Method
     @BeforeClass
     public void parallelSetup(ITestContext context) {
-        // Get the thread count from system properties or default to 1
-        int threadCount = Integer.parseInt(System.getProperty("thread.count", "1"));
+        // Get the thread count from system properties, or enough threads for the web and API limits if they are set
+        // (1 by default).
+        // In coordinator mode the threads only wait for worker results, one per worker JVM.
+        int threadCount = WorkerCoordinator.isEnabled() ? WorkerCoordinator.workerCount() : ResourceClassScheduler.poolSize();
         Logger logger = Logger.getLogger(TestRunner.class.getName());
         logger.log(Level.INFO, "Configured thread count value: " + threadCount);
+        ResourceClassScheduler.logLimits();
+        if (ResourceClassScheduler.isAutoThreadCount() && !WorkerCoordinator.isEnabled()) {
+            // -Dthread.count=auto: adapt the number of active workers to CPU, memory and throughput
+            AdaptiveWorkerController.start(threadCount);
+        }
 
         // Set the data provider thread count for parallel execution
         context.getSuite().getXmlSuite().setDataProviderThreadCount(threadCount);
     }
+
+    // Coordinator mode: wait for the worker JVMs and merge their reports.
+    // Runs after this runner's own (empty) cucumber.json has been written, so the merged report replaces it.
+    @AfterSuite(alwaysRun = true)
+    public void mergeWorkerReports() {
+        if (coordinator != null) {
+            coordinator.finish();
+            coordinator = null;
+        }
+    }
 }
 
 // sample run command
 // mvn clean test -Dheadless=true -DslowMo=500 -Dbrowser=chromium -Dthread.count=5 -Dcucumber.filter.tags="@regression"
+// mvn clean test -Dthread.count.web=2 -Dthread.count.api=20
+// mvn clean test -Dthread.count=auto
+// mvn clean test -Dshard.index=0 -Dshard.total=3
+// mvn clean test -Dworkers.jvm=4
+// mvn clean test -Dimpact.base=origin/main
 
 // reference for parallel execution with TestNG and Cucumber
 // https://www.youtube.com/watch?v=g3BGOmmkzpQ
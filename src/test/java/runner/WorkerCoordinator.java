@@ -0,0 +1,306 @@
+package runner;
+
+import io.cucumber.testng.CucumberOptions;
+import manager.ScenarioHistory;
+import utilities.RunMetrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinator mode (-Dworkers.jvm=N): the scenarios run in N forked worker JVMs instead of in this JVM,
+ * so that drivers and garbage collection are spread over several processes on one machine.
+ * <p>
+ * Every worker has its own queue, filled in schedule order (longest first). A worker takes from the head of its own
+ * queue; once that is empty it steals from the tail of the fullest other queue. Workers talk to the coordinator over
+ * a loopback socket (see ScenarioWorker for the protocol) and report each result as soon as the scenario finishes.
+ * Each worker runs in its own directory under target/workers, with its own reports and downloads;
+ * their cucumber.json reports are merged into target/cucumber.json at the end.
+ */
+public final class WorkerCoordinator {
+
+    private static final Logger logger = Logger.getLogger(WorkerCoordinator.class.getName());
+
+    public enum Status {
+        PASSED,
+        FAILED,
+        SKIPPED
+    }
+
+    // Result of one scenario, as reported by a worker
+    public record Result(Status status, long millis, String message) {
+    }
+
+    // System properties of this JVM that are not passed on to the workers
+    private static final List<String> NOT_FORWARDED = List.of(
+            "java.", "jdk.", "sun.", "os.", "user.", "file.", "line.", "path.", "native.", "stdout.", "stderr.",
+            "workers.jvm", "worker.", "cucumber.features", "project.dir", "download.dir", "config.path");
+
+    private final int workerCount;
+    private final List<Deque<String>> queues = new ArrayList<>();
+    private final Map<String, CompletableFuture<Result>> results = new ConcurrentHashMap<>();
+    private final Map<Integer, String> inFlight = new ConcurrentHashMap<>();
+    private final List<Process> processes = new ArrayList<>();
+    private final AtomicInteger liveWorkers = new AtomicInteger();
+    private final Path projectDir = Paths.get(System.getProperty("user.dir"));
+    private final Path workersDir = projectDir.resolve(Paths.get("target", "workers"));
+    private ServerSocket server;
+
+    public WorkerCoordinator(List<String> scenarioKeys, int workerCount) {
+        this.workerCount = workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+        }
+        // Deal the scenarios out like cards, so every queue starts with some of the longest ones
+        for (int i = 0; i < scenarioKeys.size(); i++) {
+            String key = scenarioKeys.get(i);
+            queues.get(i % workerCount).addLast(key);
+            results.put(key, new CompletableFuture<>());
+        }
+    }
+
+    public static int workerCount() {
+        return Integer.getInteger("workers.jvm", 0);
+    }
+
+    // Coordinator mode is on in the main JVM only, never in the workers themselves
+    public static boolean isEnabled() {
+        return workerCount() > 0 && System.getProperty("worker.id") == null;
+    }
+
+    // Open the socket and fork the worker JVMs
+    public void start() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptWorkers, "worker-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        for (int id = 0; id < workerCount; id++) {
+            Path workerDir = workersDir.resolve("w" + id);
+            Files.createDirectories(workerDir);
+            ProcessBuilder builder = new ProcessBuilder(workerCommand(id, workerDir))
+                    .directory(workerDir.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(workerDir.resolve("worker.log").toFile());
+            Process process = builder.start();
+            processes.add(process);
+            liveWorkers.incrementAndGet();
+            int workerId = id;
+            process.onExit().thenRun(() -> workerExited(workerId, process.exitValue()));
+        }
+        logger.info("Started " + workerCount + " worker JVMs for " + results.size() + " scenarios, logs in " + workersDir);
+        RunMetrics.add("workers.jvm.started", workerCount);
+    }
+
+    private List<String> workerCommand(int id, Path workerDir) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmOptions = System.getProperty("workers.jvm.opts", "");
+        if (!jvmOptions.isBlank()) {
+            command.addAll(List.of(jvmOptions.trim().split("\\s+")));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+
+        // Same settings as this run (browser, headless, tags, ...), but paths that depend on the working directory
+        // point back to the project, except for the worker's own downloads
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (NOT_FORWARDED.stream().noneMatch(name::startsWith)) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-Dworker.id=" + id);
+        // Shared limits such as the API rate limit are split between the workers
+        command.add("-Dworkers.jvm.count=" + workerCount);
+        command.add("-Dworker.port=" + server.getLocalPort());
+        command.add("-Dproject.dir=" + projectDir);
+        command.add("-Dcucumber.features=" + String.join(",", featurePaths()));
+        command.add("-Dconfig.path=" + System.getProperty("config.path",
+                projectDir.resolve(Paths.get("src", "test", "resources", "properties", "config.properties")).toString()));
+        command.add("-Ddownload.dir=" + workerDir.resolve("downloads"));
+        command.add(ScenarioWorker.class.getName());
+        return command;
+    }
+
+    // Feature paths of this run, made absolute so that workers find them from their own directory
+    private List<String> featurePaths() {
+        String configured = System.getProperty("cucumber.features");
+        List<String> features = configured != null
+                ? List.of(configured.split(","))
+                : List.of(TestRunner.class.getAnnotation(CucumberOptions.class).features());
+        List<String> absolute = new ArrayList<>();
+        for (String feature : features) {
+            String trimmed = feature.trim();
+            absolute.add(trimmed.startsWith("classpath:") || Paths.get(trimmed).isAbsolute()
+                    ? trimmed
+                    : projectDir.resolve(trimmed).toString());
+        }
+        return absolute;
+    }
+
+    private void acceptWorkers() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serve(socket), "worker-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    logger.log(Level.WARNING, "Failed to accept worker connection.", e);
+                }
+            }
+        }
+    }
+
+    // Answer one worker's requests until it has no more work
+    private void serve(Socket socket) {
+        int id = -1;
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                switch (fields[0]) {
+                    case "HELLO" -> id = Integer.parseInt(fields[1]);
+                    case "NEXT" -> {
+                        String key = next(id);
+                        if (key == null) {
+                            out.println("DONE");
+                        } else {
+                            inFlight.put(id, key);
+                            out.println("RUN\t" + key);
+                        }
+                    }
+                    case "RESULT" -> {
+                        inFlight.remove(id);
+                        complete(fields[1], new Result(Status.valueOf(fields[2]), Long.parseLong(fields[3]),
+                                ScenarioWorker.unescape(fields[4])));
+                    }
+                    default -> logger.warning("Unknown message from worker " + id + ": " + line);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Lost connection to worker " + id, e);
+        }
+    }
+
+    // The next scenario for a worker: from its own queue, or stolen from the fullest other queue
+    private String next(int id) {
+        String key = queues.get(id).pollFirst();
+        if (key != null) {
+            return key;
+        }
+        while (true) {
+            Deque<String> victim = null;
+            for (Deque<String> queue : queues) {
+                if (!queue.isEmpty() && (victim == null || queue.size() > victim.size())) {
+                    victim = queue;
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            key = victim.pollLast();
+            if (key != null) {
+                RunMetrics.increment("workers.jvm.steals");
+                return key;
+            }
+        }
+    }
+
+    private void complete(String key, Result result) {
+        CompletableFuture<Result> future = results.get(key);
+        if (future != null && future.complete(result)) {
+            long now = System.currentTimeMillis();
+            ScenarioHistory.record(key, now - result.millis(), now);
+            RunMetrics.increment("workers.jvm.scenarios." + result.status().name().toLowerCase());
+        }
+    }
+
+    // A worker JVM ended: fail the scenario it was running, and everything left if it was the last one
+    private void workerExited(int id, int exitCode) {
+        String running = inFlight.remove(id);
+        if (running != null) {
+            complete(running, new Result(Status.FAILED, 0, "Worker JVM " + id + " exited with code " + exitCode
+                    + " while running this scenario, see " + workersDir.resolve("w" + id).resolve("worker.log")));
+        }
+        if (exitCode != 0) {
+            logger.warning("Worker JVM " + id + " exited with code " + exitCode);
+            RunMetrics.increment("workers.jvm.crashes");
+        }
+        if (liveWorkers.decrementAndGet() == 0) {
+            results.forEach((key, future) -> future.complete(
+                    new Result(Status.FAILED, 0, "No worker JVM left to run this scenario")));
+        }
+    }
+
+    // Wait for the result of a scenario
+    public Result await(String key) {
+        CompletableFuture<Result> future = results.get(key);
+        if (future == null) {
+            throw new IllegalStateException("Scenario was not scheduled on a worker: " + key);
+        }
+        return future.join();
+    }
+
+    // Wait for the workers to exit, then merge their reports into target/cucumber.json
+    public void finish() {
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(2, TimeUnit.MINUTES)) {
+                    logger.warning("Worker JVM did not exit in time, killing it.");
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close the coordinator socket.", e);
+        }
+
+        List<Path> reports = new ArrayList<>();
+        for (int id = 0; id < workerCount; id++) {
+            Path report = workersDir.resolve("w" + id).resolve(Paths.get("target", "cucumber.json"));
+            if (Files.exists(report)) {
+                reports.add(report);
+            }
+        }
+        try {
+            Path merged = projectDir.resolve(Paths.get("target", "cucumber.json"));
+            ReportMerger.write(merged, reports);
+            // The worker reports are part of the merged one now; remove them so the HTML report doesn't count them twice
+            for (Path report : reports) {
+                Files.delete(report);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to merge the worker reports.", e);
+        }
+    }
+}
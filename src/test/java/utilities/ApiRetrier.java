@@ -0,0 +1,255 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Retries and hedging for the API calls of one scenario (one instance per RESTUtils, i.e. per scenario).
+ * <ul>
+ *     <li>Retries: connection failures and the "retryOnStatus" statuses are retried with exponential backoff and
+ *     full jitter, but only for requests that are safe to send twice: GET, PUT, DELETE, and POSTs that carry a
+ *     PayPal-Request-Id (PayPal's idempotency key).</li>
+ *     <li>Hedging: a GET still running after the p95 latency observed for its host gets a second, identical request,
+ *     and the first response wins. Only with the thread-safe "jdk" transport; Playwright objects belong to one thread.</li>
+ * </ul>
+ * Retries and hedges have a budget per scenario. Every attempt is logged and attached to the scenario at the end.
+ * Configured in the "Retry" section of restconfig_properties.yml.
+ */
+public class ApiRetrier {
+
+    private static final Logger logger = Logger.getLogger(ApiRetrier.class.getName());
+
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+
+    // Runs the hedged requests
+    private static final ExecutorService hedgeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Recent GET latencies per host, for the hedging delay
+    private static final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    // Thrown by an attempt when the transport failed to get a response (connection error or timeout, as opposed to
+    // e.g. an open circuit or a malformed request), so it may be retried
+    public static class AttemptFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public AttemptFailedException(RuntimeException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized RuntimeException getCause() {
+            return (RuntimeException) super.getCause();
+        }
+    }
+
+    // Ring buffer of the last latencies of one host
+    private static final class LatencyWindow {
+        private final long[] millis = new long[200];
+        private int count;
+        private int next;
+
+        private synchronized void add(long value) {
+            millis[next] = value;
+            next = (next + 1) % millis.length;
+            count = Math.min(count + 1, millis.length);
+        }
+
+        // -1 until there are enough samples
+        private synchronized long p95(int minSamples) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(millis, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(count * 0.95) - 1];
+        }
+    }
+
+    private final JsonNode config = FixtureRepository.getFile(CONFIG_FILE).path("Retry");
+    private final AtomicInteger retriesLeft = new AtomicInteger(config.path("scenarioRetryBudget").asInt(10));
+    private final AtomicInteger hedgesLeft = new AtomicInteger(config.path("hedge").path("scenarioBudget").asInt(5));
+    private final StringBuffer attemptLog = new StringBuffer();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * Send the request with retries (and hedging, if allowed).
+     *
+     * @param request  The request
+     * @param attempt  Sends the request once; throws AttemptFailedException when the request itself failed
+     * @param hedgable Whether the transport can send two requests at the same time
+     * @return The response of the last attempt
+     */
+    public RestResponse execute(RestRequest request, Function<RestRequest, RestResponse> attempt, boolean hedgable) {
+        int call = calls.incrementAndGet();
+        boolean retryable = isIdempotent(request);
+        int maxAttempts = Math.max(1, config.path("maxAttempts").asInt(3));
+        Set<Integer> retryStatuses = new HashSet<>();
+        config.path("retryOnStatus").forEach(status -> retryStatuses.add(status.asInt()));
+        if (retryStatuses.isEmpty()) {
+            retryStatuses.addAll(Set.of(502, 503, 504));
+        }
+
+        for (int attemptNo = 1; ; attemptNo++) {
+            long start = System.nanoTime();
+            String outcome;
+            RestResponse response = null;
+            AttemptFailedException failure = null;
+            try {
+                response = hedgable && request.method().equals("GET")
+                        ? hedged(request, attempt, call, attemptNo)
+                        : attempt.apply(request);
+                outcome = response.status() + " " + response.statusText();
+            } catch (AttemptFailedException e) {
+                failure = e;
+                outcome = String.valueOf(e.getCause());
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (response != null && request.method().equals("GET")) {
+                latencies.computeIfAbsent(request.baseURL(), host -> new LatencyWindow()).add(millis);
+            }
+            String line = "call " + call + " attempt " + attemptNo + ": " + request.method() + " " + request.path()
+                    + " -> " + outcome + " in " + millis + " ms";
+
+            boolean failedTransiently = failure != null || retryStatuses.contains(response.status());
+            if (!failedTransiently) {
+                log(line);
+                return response;
+            }
+            String reason = !retryable ? "not retried, " + request.method() + " without PayPal-Request-Id is not idempotent"
+                    : attemptNo >= maxAttempts ? "giving up after " + attemptNo + " attempts"
+                    : retriesLeft.getAndDecrement() <= 0 ? "not retried, the retry budget of the scenario is used up"
+                    : null;
+            if (reason != null) {
+                log(line + "; " + reason);
+                if (failure != null) {
+                    throw failure.getCause();
+                }
+                return response;
+            }
+
+            long delay = backoffMillis(attemptNo);
+            log(line + "; retrying in " + delay + " ms");
+            RunMetrics.increment("api.retries");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to retry " + request.method() + " " + request.path(), e);
+            }
+        }
+    }
+
+    // GET, PUT and DELETE are idempotent; a POST only with an idempotency key
+    private static boolean isIdempotent(RestRequest request) {
+        if (IDEMPOTENT_METHODS.contains(request.method())) {
+            return true;
+        }
+        return request.method().equals("POST")
+                && request.allHeaders().keySet().stream().anyMatch("PayPal-Request-Id"::equalsIgnoreCase);
+    }
+
+    // Exponential backoff with full jitter: random between 0 and base * 2^(attempt - 1), capped
+    private long backoffMillis(int attemptNo) {
+        long base = config.path("baseDelayMillis").asLong(200);
+        long cap = config.path("maxDelayMillis").asLong(5000);
+        long ceiling = Math.min(cap, base << Math.min(attemptNo - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // Send the GET, and a second one if the first is slower than the p95 of its host; the first response wins
+    private RestResponse hedged(RestRequest request, Function<RestRequest, RestResponse> attempt, int call, int attemptNo) {
+        JsonNode hedge = config.path("hedge");
+        long p95 = latencies.computeIfAbsent(request.baseURL(), host -> new LatencyWindow())
+                .p95(hedge.path("minSamples").asInt(20));
+        if (!hedge.path("enabled").asBoolean(true) || p95 < 0 || hedgesLeft.get() <= 0) {
+            return attempt.apply(request);
+        }
+        long delay = Math.max(p95, hedge.path("minDelayMillis").asLong(100));
+
+        CompletableFuture<RestResponse> primary = CompletableFuture.supplyAsync(() -> attempt.apply(request), hedgeExecutor);
+        try {
+            return primary.get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (hedgesLeft.getAndDecrement() <= 0) {
+                return await(primary);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calling " + request.method() + " " + request.path(), e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+
+        log("call " + call + " attempt " + attemptNo + ": " + request.method() + " " + request.path()
+                + " still running after the p95 of " + delay + " ms, sending a hedged request");
+        RunMetrics.increment("api.hedges");
+        CompletableFuture<RestResponse> secondary = CompletableFuture.supplyAsync(() -> attempt.apply(request), hedgeExecutor);
+        // First successful response, or the failure once both failed
+        CompletableFuture<RestResponse> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<RestResponse> future : List.of(primary, secondary)) {
+            future.whenComplete((response, error) -> {
+                if (error == null) {
+                    if (first.complete(response) && future == secondary) {
+                        RunMetrics.increment("api.hedges.won");
+                    }
+                } else if (failed.incrementAndGet() == 2) {
+                    first.completeExceptionally(error);
+                }
+            });
+        }
+        return await(first);
+    }
+
+    private static RestResponse await(CompletableFuture<RestResponse> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for an API response", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    // Rethrow what an attempt threw on another thread as is
+    private static RuntimeException rethrow(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error e) {
+            throw e;
+        }
+        return new RuntimeException(cause);
+    }
+
+    private void log(String line) {
+        attemptLog.append(line).append('\n');
+        logger.fine(line);
+    }
+
+    // Every attempt of every call of the scenario, for the report
+    public String attemptLog() {
+        return attemptLog.toString();
+    }
+}
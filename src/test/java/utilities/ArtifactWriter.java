@@ -0,0 +1,211 @@
+package utilities;
+
+import io.cucumber.java.Scenario;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes failure artifacts (screenshots, DOM snapshots, response bodies) to target/artifacts in the background,
+ * so the report only carries a link instead of a base64 copy inside cucumber.json.
+ * <p>
+ * Files are content-addressed (SHA-256 of the original bytes), so identical artifacts are stored once.
+ * Screenshots are downscaled and re-encoded as JPEG by default. The total size is capped; artifacts over the
+ * cap are dropped (and counted). Worker JVMs write to the same directory through -Dproject.dir.
+ * Settings: -Dartifacts.image.format=jpeg|png, -Dartifacts.image.max.width, -Dartifacts.jpeg.quality,
+ * -Dartifacts.max.total.mb. {@link #flush()} waits for all pending writes; called from @AfterAll.
+ */
+public final class ArtifactWriter {
+
+    private static final Logger logger = Logger.getLogger(ArtifactWriter.class.getName());
+
+    private static final Path ROOT = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")),
+            "target", "artifacts");
+
+    // Links are relative to the report directories under target (target/site, target/cucumber-html-reports)
+    private static final String LINK_PREFIX = "../artifacts/";
+
+    private static final long MAX_TOTAL_BYTES = Long.getLong("artifacts.max.total.mb", 500) * 1024 * 1024;
+
+    private static final Set<String> stored = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong totalBytes = new AtomicLong();
+
+    // Two writer threads; when they fall behind, the caller encodes the artifact itself instead of queueing more
+    private static final ThreadPoolExecutor writer = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(64), runnable -> {
+        Thread thread = new Thread(runnable, "artifact-writer");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private ArtifactWriter() {
+        // utility
+    }
+
+    /**
+     * Store the artifact and attach a link to it to the scenario.
+     *
+     * @param scenario  The scenario to attach the link to
+     * @param data      The artifact, e.g. a PNG screenshot
+     * @param mediaType Its media type: image/png, text/html, application/json or text/plain
+     * @param name      The attachment name shown in the report
+     */
+    public static void attach(Scenario scenario, byte[] data, String mediaType, String name) {
+        if (data == null || data.length == 0) {
+            return;
+        }
+        String link = store(data, mediaType);
+        if (link == null) {
+            scenario.attach(name + " not stored: the artifact size cap of " + MAX_TOTAL_BYTES / (1024 * 1024)
+                    + " MB is reached (-Dartifacts.max.total.mb)", "text/plain", name);
+            return;
+        }
+        scenario.attach(link, "text/uri-list", name);
+    }
+
+    public static void attach(Scenario scenario, String text, String mediaType, String name) {
+        attach(scenario, text.getBytes(StandardCharsets.UTF_8), mediaType, name);
+    }
+
+    /**
+     * Queue the artifact for writing and return its link right away (null if it is over the size cap).
+     * The same content is written only once.
+     */
+    public static String store(byte[] data, String mediaType) {
+        String hash = sha256(data);
+        String file = hash.substring(0, 2) + "/" + hash + "." + extension(mediaType);
+        if (!stored.add(file)) {
+            RunMetrics.increment("artifacts.deduplicated");
+            return LINK_PREFIX + file;
+        }
+        if (totalBytes.addAndGet(data.length) > MAX_TOTAL_BYTES) {
+            totalBytes.addAndGet(-data.length);
+            stored.remove(file);
+            RunMetrics.increment("artifacts.dropped");
+            return null;
+        }
+        Runnable write = () -> write(ROOT.resolve(file), data, mediaType);
+        try {
+            writer.execute(write);
+        } catch (RejectedExecutionException e) {
+            // After the flush at the end of the run
+            write.run();
+        }
+        return LINK_PREFIX + file;
+    }
+
+    private static String extension(String mediaType) {
+        switch (mediaType) {
+            case "image/png":
+                return isJpeg() ? "jpg" : "png";
+            case "text/html":
+                return "html";
+            case "application/json":
+                // Not .json: the cucumber-reporting plugin reads every *.json file under target
+                return "json.txt";
+            default:
+                return "txt";
+        }
+    }
+
+    private static boolean isJpeg() {
+        return !"png".equalsIgnoreCase(System.getProperty("artifacts.image.format", "jpeg"));
+    }
+
+    private static void write(Path file, byte[] data, String mediaType) {
+        try {
+            byte[] content = "image/png".equals(mediaType) ? downscale(data) : data;
+            Files.createDirectories(file.getParent());
+            // Written under a temporary name and moved, since another worker JVM may write the same file
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            Files.write(temp, content);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            RunMetrics.increment("artifacts.written");
+            RunMetrics.add("artifacts.bytes", content.length);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to write artifact " + file, e);
+        }
+    }
+
+    // Scale the screenshot down to the maximum width and encode it as JPEG (unless PNG is configured)
+    private static byte[] downscale(byte[] png) throws IOException {
+        if (!isJpeg()) {
+            return png;
+        }
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(png));
+        if (source == null) {
+            return png;
+        }
+        int maxWidth = Integer.getInteger("artifacts.image.max.width", 1280);
+        double scale = Math.min(1.0, (double) maxWidth / source.getWidth());
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        // JPEG has no alpha channel
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        graphics.dispose();
+
+        ImageWriter jpegWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            jpegWriter.setOutput(stream);
+            ImageWriteParam param = jpegWriter.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Float.parseFloat(System.getProperty("artifacts.jpeg.quality", "0.8")));
+            jpegWriter.write(null, new IIOImage(target, null, null), param);
+        } finally {
+            jpegWriter.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    // Wait until every queued artifact is on disk. Called once from @AfterAll, before the reports are written.
+    public static void flush() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(2, TimeUnit.MINUTES)) {
+                logger.warning("Artifact writer did not finish within 2 minutes, some artifacts may be missing.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
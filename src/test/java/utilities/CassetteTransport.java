@@ -0,0 +1,357 @@
+package utilities;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jayway.jsonpath.DocumentContext;
+import io.cucumber.java.Scenario;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Record/replay ("VCR") of the API calls of a scenario, selected with -Dapi.cassette.mode=record|replay
+ * (off by default). Configured in the "Cassettes" section of restconfig_properties.yml.
+ * <ul>
+ *     <li>record: calls go through the real transport; the request/response pairs of each scenario are saved to
+ *     its cassette, &lt;dir&gt;/&lt;feature&gt;/line-&lt;n&gt;.json.txt, with the "scrubHeaders" headers and the
+ *     "scrubFields" JSON/form fields replaced by "***".</li>
+ *     <li>replay: calls are answered from the cassette, without any network (or Playwright driver). Requests are
+ *     matched on method, path and normalised body (keys sorted, "ignoredFields" and scrubbed fields removed);
+ *     repeated identical requests get the recorded responses in order. IDs the API returned ("idPaths", e.g. a
+ *     webhook id) are replaced by placeholders in paths and bodies, so a request using an id from an earlier
+ *     response matches whatever the id was when it was recorded. A request missing from the scenario's cassette
+ *     is looked up in all cassettes (e.g. an OAuth token fetched by another scenario when it was recorded).</li>
+ * </ul>
+ * Cassettes are parsed once into in-memory indexes, replaying is a map lookup per request.
+ */
+public class CassetteTransport implements HttpTransport {
+
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+
+    // Cassettes are JSON, but not *.json: resources are copied to target, where the cucumber report plugin
+    // parses every *.json file
+    private static final String EXTENSION = ".json.txt";
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT);
+    // Canonical form of bodies for matching
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    public enum Mode {
+        RECORD,
+        REPLAY
+    }
+
+    // One recorded call
+    public record Interaction(String method, String path, Map<String, String> headers, String body,
+                              Map<String, String> form, int status, String statusText,
+                              Map<String, String> responseHeaders, String responseBody) {
+    }
+
+    // Interactions of a cassette by match key, in recorded order
+    private record Index(Map<String, List<Interaction>> byKey) {
+    }
+
+    private static final Map<Path, Index> cassettes = new ConcurrentHashMap<>();
+    private static volatile Map<String, Interaction> allCassettes;
+
+    private final HttpTransport delegate;
+    private final Mode mode;
+    private final Path cassette;
+    private final JsonNode config = FixtureRepository.getFile(CONFIG_FILE).path("Cassettes");
+    private final Set<String> ignoredFields = new HashSet<>();
+    private final Set<String> scrubbedFields = new HashSet<>();
+    private final Set<String> scrubbedHeaders = new HashSet<>();
+
+    // Recorded calls (record mode) and the replay position per key (replay mode) of this scenario
+    private final List<Interaction> recorded = new ArrayList<>();
+    private final Map<String, Integer> replayed = new HashMap<>();
+    // IDs returned by the API so far, with their placeholders
+    private final Map<String, String> knownIds = new LinkedHashMap<>();
+
+    /**
+     * @param delegate The real transport (record mode), or null (replay mode)
+     * @param mode     Record or replay
+     * @param scenario The scenario whose cassette is used
+     */
+    public CassetteTransport(HttpTransport delegate, Mode mode, Scenario scenario) {
+        this.delegate = delegate;
+        this.mode = mode;
+        this.cassette = cassetteFile(config, scenario);
+        config.path("ignoredFields").forEach(field -> ignoredFields.add(field.asText()));
+        config.path("scrubFields").forEach(field -> scrubbedFields.add(field.asText()));
+        config.path("scrubHeaders").forEach(header -> scrubbedHeaders.add(header.asText().toLowerCase()));
+        ignoredFields.addAll(scrubbedFields);
+    }
+
+    // Mode from -Dapi.cassette.mode, null when cassettes are off
+    public static Mode mode() {
+        String mode = System.getProperty("api.cassette.mode", "off").trim().toLowerCase();
+        switch (mode) {
+            case "off":
+                return null;
+            case "record":
+                return Mode.RECORD;
+            case "replay":
+                return Mode.REPLAY;
+            default:
+                throw new IllegalArgumentException("Unsupported api.cassette.mode: " + mode
+                        + ". Must be 'off', 'record' or 'replay'.");
+        }
+    }
+
+    private static Path cassettesDir(JsonNode config) {
+        return Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")))
+                .resolve(config.path("dir").asText("src/test/resources/cassettes"));
+    }
+
+    // <dir>/PaypalAPIs/line-12.json.txt
+    private static Path cassetteFile(JsonNode config, Scenario scenario) {
+        String path = scenario.getUri().getPath();
+        String feature = path.substring(path.lastIndexOf('/') + 1).replace(".feature", "");
+        return cassettesDir(config).resolve(feature).resolve("line-" + scenario.getLine() + EXTENSION);
+    }
+
+    // Replayed calls never reach the network, so no rate limit or circuit breaker applies
+    @Override
+    public boolean callsNetwork() {
+        return mode == Mode.RECORD;
+    }
+
+    @Override
+    public RestResponse send(RestRequest request) {
+        return mode == Mode.RECORD ? record(request) : replay(request);
+    }
+
+    private RestResponse record(RestRequest request) {
+        RestResponse response = delegate.send(request);
+        recorded.add(new Interaction(request.method(), request.path(), scrubHeaders(request.allHeaders()),
+                scrubBody(request.body()), scrubForm(request.form()), response.status(), response.statusText(),
+                new TreeMap<>(response.headers()), scrubBody(response.text())));
+        RunMetrics.increment("api.cassette.recorded");
+        return response;
+    }
+
+    private RestResponse replay(RestRequest request) {
+        String key = key(request.method(), request.path(), request.body(), request.form());
+        Interaction interaction = nextInteraction(key);
+        if (interaction == null) {
+            throw new IllegalStateException("No recorded API call matches " + key + " in cassette " + cassette
+                    + " (or any other cassette). Record it with -Dapi.cassette.mode=record.");
+        }
+        learnIds(interaction.responseBody());
+        RunMetrics.increment("api.cassette.replayed");
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(interaction.responseHeaders());
+        return new RestResponse(interaction.status(), interaction.statusText(), interaction.responseBody(), headers);
+    }
+
+    // The recorded responses of a key in order; the last one is repeated once they are used up
+    private Interaction nextInteraction(String key) {
+        List<Interaction> candidates = cassettes.computeIfAbsent(cassette, this::load).byKey().get(key);
+        if (candidates == null) {
+            return allCassettes().get(key);
+        }
+        int position = replayed.merge(key, 1, Integer::sum) - 1;
+        return candidates.get(Math.min(position, candidates.size() - 1));
+    }
+
+    // Build the match index of a cassette, discovering its ids in recorded order like the replay does
+    private Index load(Path file) {
+        Map<String, List<Interaction>> byKey = new HashMap<>();
+        CassetteTransport indexer = new CassetteTransport(null, Mode.REPLAY, this);
+        for (Interaction interaction : read(file)) {
+            String key = indexer.key(interaction.method(), interaction.path(), interaction.body(), interaction.form());
+            byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(interaction);
+            indexer.learnIds(interaction.responseBody());
+        }
+        return new Index(byKey);
+    }
+
+    // Fresh matching state with the same settings, for indexing a cassette
+    private CassetteTransport(HttpTransport delegate, Mode mode, CassetteTransport settings) {
+        this.delegate = delegate;
+        this.mode = mode;
+        this.cassette = settings.cassette;
+        this.ignoredFields.addAll(settings.ignoredFields);
+        this.scrubbedFields.addAll(settings.scrubbedFields);
+        this.scrubbedHeaders.addAll(settings.scrubbedHeaders);
+    }
+
+    // First interaction of every key of every cassette, for requests that a scenario didn't record itself
+    private Map<String, Interaction> allCassettes() {
+        if (allCassettes == null) {
+            synchronized (CassetteTransport.class) {
+                if (allCassettes == null) {
+                    Map<String, Interaction> all = new HashMap<>();
+                    try (Stream<Path> files = Files.walk(cassettesDir(config))) {
+                        for (Path file : files.filter(f -> f.toString().endsWith(EXTENSION)).sorted().toList()) {
+                            cassettes.computeIfAbsent(file, this::load).byKey()
+                                    .forEach((key, interactions) -> all.putIfAbsent(key, interactions.get(0)));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to read the cassettes in " + cassettesDir(config), e);
+                    }
+                    allCassettes = all;
+                }
+            }
+        }
+        return allCassettes;
+    }
+
+    private static List<Interaction> read(Path file) {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        try {
+            return JSON_MAPPER.readValue(file.toFile(), new TypeReference<List<Interaction>>() {
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read cassette " + file, e);
+        }
+    }
+
+    // Save the recorded calls of the scenario. Called at the end of the scenario (APIManager.tearDown).
+    public void save() {
+        if (mode != Mode.RECORD || recorded.isEmpty()) {
+            return;
+        }
+        try {
+            Files.createDirectories(cassette.getParent());
+            JSON_MAPPER.writeValue(cassette.toFile(), recorded);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write cassette " + cassette, e);
+        }
+    }
+
+    // "POST /v1/notifications/webhooks/{id1} {canonical body}"
+    private String key(String method, String path, String body, Map<String, String> form) {
+        String normalisedBody;
+        if (form != null) {
+            normalisedBody = new TreeMap<>(form).entrySet().stream()
+                    .filter(e -> !ignoredFields.contains(e.getKey()))
+                    .map(e -> e.getKey() + "=" + e.getValue())
+                    .collect(Collectors.joining("&"));
+        } else {
+            normalisedBody = canonicalJson(body);
+        }
+        return method + " " + withPlaceholders(path) + " " + withPlaceholders(normalisedBody);
+    }
+
+    private String canonicalJson(String body) {
+        if (body == null || body.isBlank()) {
+            return "";
+        }
+        try {
+            JsonNode json = CANONICAL_MAPPER.readTree(body);
+            removeFields(json, ignoredFields);
+            // Through a map, so that the keys come out sorted
+            return CANONICAL_MAPPER.writeValueAsString(CANONICAL_MAPPER.treeToValue(json, Object.class));
+        } catch (IOException e) {
+            return body.trim();
+        }
+    }
+
+    private static void removeFields(JsonNode node, Set<String> fields) {
+        if (node instanceof ObjectNode object) {
+            object.remove(fields);
+        }
+        node.forEach(child -> removeFields(child, fields));
+    }
+
+    private String withPlaceholders(String text) {
+        String result = text == null ? "" : text;
+        for (Map.Entry<String, String> id : knownIds.entrySet()) {
+            result = result.replace(id.getKey(), id.getValue());
+        }
+        return result;
+    }
+
+    // Remember the ids in a response (configured JsonPaths), in order of appearance
+    private void learnIds(String responseBody) {
+        if (responseBody == null || responseBody.isBlank()) {
+            return;
+        }
+        DocumentContext document;
+        try {
+            document = JsonHelper.parse(responseBody);
+        } catch (RuntimeException e) {
+            return;
+        }
+        for (JsonNode idPath : config.path("idPaths")) {
+            try {
+                Object value = document.read(JsonHelper.compile(idPath.asText()));
+                // Short values would replace unrelated text
+                if (value instanceof String id && id.length() >= 6 && !knownIds.containsKey(id)) {
+                    knownIds.put(id, "{id" + (knownIds.size() + 1) + "}");
+                }
+            } catch (RuntimeException ignored) {
+                // Not in this response
+            }
+        }
+    }
+
+    private Map<String, String> scrubHeaders(Map<String, String> headers) {
+        Map<String, String> scrubbed = new TreeMap<>();
+        headers.forEach((name, value) -> scrubbed.put(name, scrubbedHeaders.contains(name.toLowerCase()) ? "***" : value));
+        return scrubbed;
+    }
+
+    private Map<String, String> scrubForm(Map<String, String> form) {
+        if (form == null) {
+            return null;
+        }
+        Map<String, String> scrubbed = new TreeMap<>();
+        form.forEach((name, value) -> scrubbed.put(name, scrubbedFields.contains(name) ? "***" : value));
+        return scrubbed;
+    }
+
+    private String scrubBody(String body) {
+        if (body == null || body.isBlank() || scrubbedFields.isEmpty()) {
+            return body;
+        }
+        try {
+            JsonNode json = JSON_MAPPER.readTree(body);
+            if (!scrub(json)) {
+                return body;
+            }
+            return JSON_MAPPER.writeValueAsString(json);
+        } catch (IOException e) {
+            // Not JSON
+            return body;
+        }
+    }
+
+    private boolean scrub(JsonNode node) {
+        boolean changed = false;
+        if (node instanceof ObjectNode object) {
+            for (String field : scrubbedFields) {
+                if (object.has(field)) {
+                    object.put(field, "***");
+                    changed = true;
+                }
+            }
+        }
+        for (JsonNode child : node) {
+            changed |= scrub(child);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,198 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.testng.SkipException;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Per-host circuit breaker for the systems under test (PayPal sandbox, web sites).
+ * After "failureThreshold" consecutive failed calls to a host (connection failure or 5xx once the retries are used up),
+ * the circuit opens:
+ * every further call to that host is skipped (or failed, see "action") at once with the reason,
+ * instead of waiting out its full timeout. After "openSeconds" one call is let through as a probe (half-open);
+ * it closes the circuit on success and opens it again on failure.
+ * A one-shot pre-flight check at the start of the run opens the circuit of hosts that are already down.
+ * Configured in the "CircuitBreaker" section of restconfig_properties.yml.
+ */
+public final class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+    private static volatile JsonNode config;
+    private static volatile boolean preflightDone;
+
+    private final String host;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private String lastFailure;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    // The breaker of the host of a URL, e.g. "https://api-m.sandbox.paypal.com/v1/oauth2/token"
+    public static CircuitBreaker forUrl(String url) {
+        String host = URI.create(url).getHost();
+        return BREAKERS.computeIfAbsent(host == null ? url : host, CircuitBreaker::new);
+    }
+
+    private static JsonNode config() {
+        if (config == null) {
+            // Missing section or keys: defaults
+            config = FixtureRepository.getFile(CONFIG_FILE).path("CircuitBreaker");
+        }
+        return config;
+    }
+
+    private static boolean enabled() {
+        return config().path("enabled").asBoolean(true);
+    }
+
+    private static int failureThreshold() {
+        return config().path("failureThreshold").asInt(3);
+    }
+
+    private static long openMillis() {
+        return config().path("openSeconds").asLong(60) * 1000;
+    }
+
+    /**
+     * Call before every request to the host. Skips (or fails) the scenario while the circuit is open;
+     * once the open period is over, lets exactly one probe through. A probe that never reports back (e.g. the
+     * scenario was interrupted) doesn't block the host for good: another one goes through after "openSeconds".
+     */
+    public synchronized void beforeCall() {
+        if (!enabled() || state == State.CLOSED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - openedAt >= openMillis()) {
+            if (state == State.HALF_OPEN) {
+                logger.warning("Probe of " + host + " didn't report back, probing it again.");
+            }
+            state = State.HALF_OPEN;
+            openedAt = now;
+            logger.info("Circuit for " + host + " is half-open, probing it with the next call.");
+            RunMetrics.increment("circuit.probes");
+            return;
+        }
+        RunMetrics.increment("circuit.rejected");
+        String reason = "Host " + host + " is unavailable (" + consecutiveFailures + " consecutive failures, last: "
+                + lastFailure + "). Circuit breaker is open, not calling it.";
+        if ("fail".equalsIgnoreCase(config().path("action").asText("skip"))) {
+            throw new IllegalStateException(reason);
+        }
+        throw new SkipException(reason);
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit for " + host + " is closed again.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    // A connection failure or 5xx response
+    public synchronized void onFailure(String reason) {
+        consecutiveFailures++;
+        lastFailure = reason;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold())) {
+            open();
+        }
+    }
+
+    // Record an HTTP status: 5xx counts as failure, anything else as success
+    public void onStatus(int status, String statusText) {
+        if (status >= 500) {
+            onFailure("HTTP " + status + " " + statusText);
+        } else {
+            onSuccess();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        RunMetrics.increment("circuit.opened");
+        String line = "Circuit opened for " + host + ": " + lastFailure;
+        logger.warning(line);
+        RunMetrics.note(line);
+    }
+
+    /**
+     * One-shot pre-flight check of all configured hosts (the API base URLs and "preflightUrls"), in parallel.
+     * Hosts that can't be reached or answer 5xx start with an open circuit. Called from @BeforeAll.
+     */
+    public static synchronized void preflight() {
+        if (preflightDone || !enabled() || !config().path("preflight").asBoolean(true)) {
+            return;
+        }
+        preflightDone = true;
+
+        Set<String> urls = new LinkedHashSet<>();
+        JsonNode base = FixtureRepository.getFile(CONFIG_FILE).path("Base");
+        // Stubbed API base URLs are served in-process; the web sites in "preflightUrls" are still checked
+        for (String name : List.of("OAuthBaseURL", "tranBaseURL")) {
+            String url = base.path(name).asText();
+            if (!PaypalStubServer.isStubbed(url)) {
+                urls.add(url);
+            }
+        }
+        config().path("preflightUrls").forEach(url -> urls.add(url.asText()));
+        urls.removeIf(String::isBlank);
+
+        Duration timeout = Duration.ofSeconds(config().path("preflightTimeoutSeconds").asLong(5));
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        List<CompletableFuture<Void>> checks = new ArrayList<>();
+        for (String url : urls) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(timeout)
+                    .build();
+            CircuitBreaker breaker = forUrl(url);
+            checks.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            breaker.openNow("pre-flight check failed: " + error.getCause());
+                        } else if (response.statusCode() >= 500) {
+                            breaker.openNow("pre-flight check returned HTTP " + response.statusCode());
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private synchronized void openNow(String reason) {
+        consecutiveFailures = Math.max(consecutiveFailures, failureThreshold());
+        lastFailure = reason;
+        open();
+    }
+}
@@ -0,0 +1,154 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import manager.ImpactIndex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe repository of YAML fixtures and configs loaded from the classpath
+ * (e.g. "apiRequests/ScenarioRequests.yml" or "properties/restconfig_properties.yml").
+ * Each file is parsed once per JVM and kept as an immutable tree; callers always get their own deep copy,
+ * so a scenario can modify its payload without affecting any other scenario.
+ * With -Dfixtures.watch=true, files are read from src/test/resources instead, and re-parsed on their next use
+ * after they change there.
+ */
+public final class FixtureRepository {
+
+    private static final Logger logger = Logger.getLogger(FixtureRepository.class.getName());
+
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    // Parsed files, keyed by classpath resource path. The cached trees are never handed out directly.
+    private static final ConcurrentHashMap<String, JsonNode> FILES = new ConcurrentHashMap<>();
+
+    // Watched files on disk → classpath resource path, used to invalidate the cache on change
+    private static final Map<Path, String> WATCHED = new ConcurrentHashMap<>();
+    private static final Set<Path> WATCHED_DIRS = ConcurrentHashMap.newKeySet();
+    private static volatile WatchService watchService;
+
+    private FixtureRepository() {
+        // utility
+    }
+
+    /**
+     * Get a copy of the whole YAML file as JsonNode.
+     */
+    public static JsonNode getFile(String filePath) {
+        ImpactIndex.fixtureUsed(filePath, "*");
+        return tree(filePath).deepCopy();
+    }
+
+    /**
+     * Get a copy of the data under a top-level key (e.g. "Scenario1" or "Base") as JsonNode.
+     */
+    public static JsonNode get(String filePath, String key) {
+        ImpactIndex.fixtureUsed(filePath, key);
+        JsonNode node = tree(filePath).get(key);
+        if (node == null) {
+            throw new RuntimeException("Scenario not found: " + key + " in " + filePath);
+        }
+        return node.deepCopy();
+    }
+
+    /**
+     * Get a copy of the data under a top-level key converted to plain Java objects (Map, List, String, ...).
+     */
+    public static Object getAsObject(String filePath, String key) {
+        return YAML_MAPPER.convertValue(get(filePath, key), Object.class);
+    }
+
+    private static JsonNode tree(String filePath) {
+        return FILES.computeIfAbsent(filePath, FixtureRepository::parse);
+    }
+
+    private static JsonNode parse(String filePath) {
+        Path source = Boolean.parseBoolean(System.getProperty("fixtures.watch", "false")) ? sourceFile(filePath) : null;
+        try (InputStream in = source != null ? Files.newInputStream(source) : openResource(filePath)) {
+            JsonNode tree = YAML_MAPPER.readTree(in);
+            RunMetrics.increment("fixtures.parsed");
+            if (source != null) {
+                watch(source, filePath);
+            }
+            return tree;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load YAML file: " + filePath, e);
+        }
+    }
+
+    private static InputStream openResource(String filePath) {
+        InputStream in = FixtureRepository.class.getClassLoader().getResourceAsStream(filePath);
+        if (in == null) {
+            throw new RuntimeException("YAML file not found: " + filePath);
+        }
+        return in;
+    }
+
+    // The file under src/test/resources, where it is edited (target/test-classes only changes on a build), or null.
+    // Worker JVMs run in their own directory, they get the project directory as -Dproject.dir.
+    private static Path sourceFile(String filePath) {
+        Path file = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")),
+                "src", "test", "resources").resolve(filePath);
+        return Files.isRegularFile(file) ? file : null;
+    }
+
+    // Watch the directory of a source file, so that edits are picked up without restarting the JVM
+    private static void watch(Path file, String filePath) {
+        try {
+            WATCHED.put(file, filePath);
+            Path dir = file.getParent();
+            if (WATCHED_DIRS.add(dir)) {
+                dir.register(watchService(), StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to watch fixture file: " + file, e);
+        }
+    }
+
+    private static synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(FixtureRepository::processEvents, "fixture-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return watchService;
+    }
+
+    private static void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.context() instanceof Path changed) {
+                    String filePath = WATCHED.get(dir.resolve(changed));
+                    if (filePath != null && FILES.remove(filePath) != null) {
+                        logger.info("Fixture file changed, it will be reloaded on next use: " + filePath);
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package utilities;
+
+/**
+ * Sends the HTTP requests built by RESTUtils. Selected with -Dapi.transport:
+ * "playwright" (default) uses Playwright's APIRequestContext, "jdk" uses java.net.http.HttpClient
+ * and doesn't need a Playwright driver at all.
+ */
+public interface HttpTransport {
+
+    // Throws UncheckedIOException when no response came back (connection error, timeout), which may be retried
+    RestResponse send(RestRequest request);
+
+    // False for transports that answer without calling the API (cassette replay), which skip rate limits and breakers
+    default boolean callsNetwork() {
+        return true;
+    }
+}
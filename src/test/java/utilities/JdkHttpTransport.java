@@ -0,0 +1,87 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Transport on top of the JDK HttpClient. One client (HTTP/2 with HTTP/1.1 fallback, one connection pool,
+ * virtual threads for its async work) is shared by all worker threads, since HttpClient is thread-safe.
+ * API-only runs using this transport never start a Playwright driver.
+ */
+public class JdkHttpTransport implements HttpTransport {
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    @Override
+    public RestResponse send(RestRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.baseURL() + request.path()));
+        // 0 means no timeout, as for Playwright
+        if (request.timeoutMillis() > 0) {
+            builder.timeout(Duration.ofMillis((long) request.timeoutMillis()));
+        }
+        request.allHeaders().forEach(builder::header);
+
+        String body = request.form() != null ? encodeForm(request.form()) : request.body();
+        builder.method(request.method(), body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(body));
+
+        try {
+            HttpResponse<String> response = CLIENT.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            response.headers().map().forEach((name, values) -> headers.put(name, String.join(", ", values)));
+            return new RestResponse(response.statusCode(), reasonPhrase(response.statusCode()), response.body(), headers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calling " + request.method() + " " + request.path(), e);
+        } catch (IOException e) {
+            // Connection failures and timeouts (HttpTimeoutException); the retrier only retries these
+            throw new UncheckedIOException("Failed to call " + request.method() + " " + request.path() + ": " + e, e);
+        }
+    }
+
+    private static String encodeForm(Map<String, String> form) {
+        return form.entrySet().stream()
+                .map(e -> URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8) + "="
+                        + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+    }
+
+    // HttpClient doesn't expose the status line, so use the standard reason phrase
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 409: return "Conflict";
+            case 422: return "Unprocessable Entity";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "";
+        }
+    }
+}
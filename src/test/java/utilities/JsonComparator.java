@@ -0,0 +1,421 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JSON documents as Jackson trees and returns the differences, instead of failing on the first one.
+ * <p>
+ * LENIENT: the actual object may have extra fields, and array elements may be in any order.
+ * STRICT: no extra fields, and array elements must be in the same order.
+ * In both modes arrays must have the same length, and numbers compare by value (1 equals 1.0).
+ * <p>
+ * Ignored paths may be written as JSONPath ("$.details[0].event_type", "$..debug_id", "$.items[*].id"),
+ * JSON Pointer ("/details/0/event_type") or dotted ("details[0].event_type", "**.debug_id").
+ * Array indexes in paths are the indexes in the expected document.
+ * <p>
+ * Unordered arrays are matched by hashing first: each expected element is paired through a hash of its own fields,
+ * which tolerates extra fields in the actual elements, so matching arrays are compared in linear time. Only the
+ * elements left without a match are compared pairwise.
+ */
+public final class JsonComparator {
+
+    public enum Mode {
+        LENIENT,
+        STRICT
+    }
+
+    public enum Kind {
+        VALUE_MISMATCH,
+        TYPE_MISMATCH,
+        MISSING_FIELD,
+        UNEXPECTED_FIELD,
+        ARRAY_LENGTH,
+        NO_MATCHING_ELEMENT,
+        UNEXPECTED_ELEMENT
+    }
+
+    // A single difference, at a JSONPath of the expected document
+    public record Difference(String path, Kind kind, JsonNode expected, JsonNode actual) {
+        @Override
+        public String toString() {
+            return path + ": " + kind + " (expected: " + expected + ", actual: " + actual + ")";
+        }
+    }
+
+    private static final String ANY = "*";
+    private static final String ANY_DEPTH = "**";
+
+    // Unordered arrays up to this size are matched pairwise, without a hash index
+    private static final int PAIRWISE_MAX_SIZE = 8;
+
+    private final Mode mode;
+    private final List<String[]> ignoredPaths = new ArrayList<>();
+
+    public JsonComparator(Mode mode, List<String> pathsToIgnore) {
+        this.mode = mode;
+        for (String path : pathsToIgnore) {
+            if (path != null && !path.trim().isEmpty()) {
+                ignoredPaths.add(parsePath(path.trim()));
+            }
+        }
+    }
+
+    public JsonComparator(Mode mode) {
+        this(mode, List.of());
+    }
+
+    /**
+     * Compare the actual document against the expected one.
+     *
+     * @return The differences, empty when the documents match
+     */
+    public List<Difference> compare(JsonNode expected, JsonNode actual) {
+        long start = System.nanoTime();
+        List<Difference> differences = new ArrayList<>();
+        compare(expected, actual, new ArrayList<>(), differences);
+        RunMetrics.increment("json.compare.calls");
+        RunMetrics.add("json.compare.micros", (System.nanoTime() - start) / 1000);
+        return differences;
+    }
+
+    // Compare two nodes at the given path. Differences are added to the list, or with a null list
+    // the comparison stops at the first difference (used to probe candidates for array elements).
+    private boolean compare(JsonNode expected, JsonNode actual, List<String> path, List<Difference> differences) {
+        if (isIgnored(path)) {
+            return true;
+        }
+        if (expected.isObject() && actual.isObject()) {
+            return compareObjects(expected, actual, path, differences);
+        }
+        if (expected.isArray() && actual.isArray()) {
+            return compareArrays(expected, actual, path, differences);
+        }
+        if (expected.isNumber() && actual.isNumber()) {
+            return numbersEqual(expected, actual) || report(differences, path, Kind.VALUE_MISMATCH, expected, actual);
+        }
+        if (expected.getNodeType() != actual.getNodeType()) {
+            return report(differences, path, Kind.TYPE_MISMATCH, expected, actual);
+        }
+        return expected.equals(actual) || report(differences, path, Kind.VALUE_MISMATCH, expected, actual);
+    }
+
+    private boolean compareObjects(JsonNode expected, JsonNode actual, List<String> path, List<Difference> differences) {
+        boolean matches = true;
+        for (Map.Entry<String, JsonNode> field : expected.properties()) {
+            path.add(field.getKey());
+            JsonNode actualValue = actual.get(field.getKey());
+            if (actualValue == null) {
+                matches &= isIgnored(path) || report(differences, path, Kind.MISSING_FIELD, field.getValue(), null);
+            } else {
+                matches &= compare(field.getValue(), actualValue, path, differences);
+            }
+            path.remove(path.size() - 1);
+            if (!matches && differences == null) {
+                return false;
+            }
+        }
+
+        if (mode == Mode.STRICT) {
+            for (Map.Entry<String, JsonNode> field : actual.properties()) {
+                if (!expected.has(field.getKey())) {
+                    path.add(field.getKey());
+                    matches &= isIgnored(path) || report(differences, path, Kind.UNEXPECTED_FIELD, null, field.getValue());
+                    path.remove(path.size() - 1);
+                    if (!matches && differences == null) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private boolean compareArrays(JsonNode expected, JsonNode actual, List<String> path, List<Difference> differences) {
+        if (expected.size() != actual.size()) {
+            return report(differences, path, Kind.ARRAY_LENGTH, expected, actual);
+        }
+
+        if (mode == Mode.STRICT) {
+            boolean matches = true;
+            for (int i = 0; i < expected.size(); i++) {
+                path.add(Integer.toString(i));
+                matches &= compare(expected.get(i), actual.get(i), path, differences);
+                path.remove(path.size() - 1);
+                if (!matches && differences == null) {
+                    return false;
+                }
+            }
+            return matches;
+        }
+        return compareUnordered(expected, actual, path, differences);
+    }
+
+    /*
+     * Unordered arrays: each expected element is only compared with the actual elements that agree with it on its
+     * own (not ignored) fields' scalar values, found through a hash index. The index key is projected on the fields
+     * of the expected element, so actual elements with extra fields (LENIENT) still land in the same bucket.
+     * Elements are grouped by their field set ("shape"), usually one per array, so pairing is linear.
+     * Only elements left without a match are compared pairwise, to report what differs.
+     */
+    private boolean compareUnordered(JsonNode expected, JsonNode actual, List<String> path, List<Difference> differences) {
+        // Actual elements by projected hash, per shape of the expected elements
+        Map<List<String>, Map<Integer, List<Integer>>> indexes = new HashMap<>();
+        boolean[] actualUsed = new boolean[actual.size()];
+        List<Integer> unmatchedExpected = new ArrayList<>();
+        // Small arrays are cheaper to compare pairwise than to index
+        int indexed = expected.size() > PAIRWISE_MAX_SIZE ? expected.size() : 0;
+        for (int i = indexed; i < expected.size(); i++) {
+            unmatchedExpected.add(i);
+        }
+        for (int i = 0; i < indexed; i++) {
+            JsonNode element = expected.get(i);
+            path.add(Integer.toString(i));
+            List<String> shape = shape(element, path);
+            Map<Integer, List<Integer>> index = indexes.computeIfAbsent(shape, k -> index(actual, k));
+            List<Integer> candidates = index.get(projectedHash(element, shape));
+            int match = -1;
+            if (candidates != null) {
+                for (int j : candidates) {
+                    if (!actualUsed[j] && compare(element, actual.get(j), path, null)) {
+                        match = j;
+                        break;
+                    }
+                }
+            }
+            path.remove(path.size() - 1);
+            if (match >= 0) {
+                actualUsed[match] = true;
+            } else {
+                unmatchedExpected.add(i);
+            }
+        }
+        if (unmatchedExpected.isEmpty()) {
+            return true;
+        }
+
+        // Leftovers (e.g. an expected element that is ignored as a whole): first actual element that matches wins
+        List<Integer> stillUnmatched = new ArrayList<>();
+        for (int i : unmatchedExpected) {
+            path.add(Integer.toString(i));
+            int match = -1;
+            for (int j = 0; j < actual.size() && match < 0; j++) {
+                if (!actualUsed[j] && compare(expected.get(i), actual.get(j), path, null)) {
+                    match = j;
+                }
+            }
+            path.remove(path.size() - 1);
+            if (match >= 0) {
+                actualUsed[match] = true;
+            } else {
+                stillUnmatched.add(i);
+            }
+        }
+        if (stillUnmatched.isEmpty()) {
+            return true;
+        }
+        if (differences == null) {
+            return false;
+        }
+
+        List<Integer> unusedActual = new ArrayList<>();
+        for (int j = 0; j < actual.size(); j++) {
+            if (!actualUsed[j]) {
+                unusedActual.add(j);
+            }
+        }
+        // A single element left on each side: report what differs inside it
+        if (stillUnmatched.size() == 1 && unusedActual.size() == 1) {
+            path.add(Integer.toString(stillUnmatched.get(0)));
+            compare(expected.get(stillUnmatched.get(0)), actual.get(unusedActual.get(0)), path, differences);
+            path.remove(path.size() - 1);
+            return false;
+        }
+        for (int i : stillUnmatched) {
+            path.add(Integer.toString(i));
+            report(differences, path, Kind.NO_MATCHING_ELEMENT, expected.get(i), null);
+            path.remove(path.size() - 1);
+        }
+        for (int j : unusedActual) {
+            report(differences, path, Kind.UNEXPECTED_ELEMENT, null, actual.get(j));
+        }
+        return false;
+    }
+
+    // Sorted names of the fields of an expected object element that take part in the comparison, null for non-objects
+    private List<String> shape(JsonNode element, List<String> path) {
+        if (!element.isObject()) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> field : element.properties()) {
+            path.add(field.getKey());
+            if (!isIgnored(path)) {
+                fields.add(field.getKey());
+            }
+            path.remove(path.size() - 1);
+        }
+        fields.sort(null);
+        return fields;
+    }
+
+    // Actual elements by their hash projected on the shape. Objects missing a field of the shape can't match it.
+    private static Map<Integer, List<Integer>> index(JsonNode actual, List<String> shape) {
+        Map<Integer, List<Integer>> index = new HashMap<>();
+        for (int j = 0; j < actual.size(); j++) {
+            JsonNode element = actual.get(j);
+            if (shape != null && (!element.isObject() || !hasFields(element, shape))) {
+                continue;
+            }
+            index.computeIfAbsent(projectedHash(element, shape), k -> new ArrayList<>(1)).add(j);
+        }
+        return index;
+    }
+
+    private static boolean hasFields(JsonNode element, List<String> fields) {
+        for (String field : fields) {
+            if (!element.has(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hash of the shape's fields only, with nested objects and arrays reduced to their type
+    private static int projectedHash(JsonNode element, List<String> shape) {
+        if (shape == null) {
+            return scalarHash(element);
+        }
+        int h = 1;
+        for (String field : shape) {
+            h = 31 * h + (field.hashCode() ^ scalarHash(element.get(field)));
+        }
+        return h;
+    }
+
+    // Hash that is equal for values compare() finds equal: numbers by value, containers only by their type,
+    // since their contents may legitimately differ (extra fields, ignored paths, element order)
+    private static int scalarHash(JsonNode node) {
+        if (node.isNumber()) {
+            if (node.isIntegralNumber() && node.canConvertToLong()) {
+                return Long.hashCode(node.longValue());
+            }
+            double value = node.doubleValue();
+            if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+                return Long.hashCode((long) value);
+            }
+            return Double.hashCode(value);
+        }
+        if (node.isContainerNode()) {
+            return node.getNodeType().hashCode();
+        }
+        return node.hashCode();
+    }
+
+    private static boolean numbersEqual(JsonNode a, JsonNode b) {
+        if (a.isIntegralNumber() && b.isIntegralNumber() && a.canConvertToLong() && b.canConvertToLong()) {
+            return a.longValue() == b.longValue();
+        }
+        return a.decimalValue().compareTo(b.decimalValue()) == 0;
+    }
+
+    private static boolean report(List<Difference> differences, List<String> path, Kind kind,
+                                  JsonNode expected, JsonNode actual) {
+        if (differences != null) {
+            differences.add(new Difference(toJsonPath(path), kind, expected, actual));
+        }
+        return false;
+    }
+
+    private boolean isIgnored(List<String> path) {
+        for (String[] pattern : ignoredPaths) {
+            if (matches(pattern, 0, path, 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String[] pattern, int p, List<String> path, int s) {
+        if (p == pattern.length) {
+            return s == path.size();
+        }
+        if (ANY_DEPTH.equals(pattern[p])) {
+            // "**" / ".." matches zero or more segments
+            for (int skip = s; skip <= path.size(); skip++) {
+                if (matches(pattern, p + 1, path, skip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (s == path.size()) {
+            return false;
+        }
+        return (ANY.equals(pattern[p]) || pattern[p].equals(path.get(s))) && matches(pattern, p + 1, path, s + 1);
+    }
+
+    // Split a JSONPath, JSON Pointer or dotted path into segments. Array indexes become plain numbers.
+    static String[] parsePath(String path) {
+        List<String> segments = new ArrayList<>();
+        if (path.startsWith("/")) {
+            for (String token : path.substring(1).split("/", -1)) {
+                segments.add(token.replace("~1", "/").replace("~0", "~"));
+            }
+            return segments.toArray(new String[0]);
+        }
+
+        int i = path.startsWith("$") ? 1 : 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                if (i + 1 < path.length() && path.charAt(i + 1) == '.') {
+                    segments.add(ANY_DEPTH);
+                    i += 2;
+                } else {
+                    i++;
+                }
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed '[' in path: " + path);
+                }
+                String token = path.substring(i + 1, end).trim();
+                if (token.startsWith("?")) {
+                    throw new IllegalArgumentException("Filter expressions are not supported in ignored paths: " + path);
+                }
+                if ((token.startsWith("'") && token.endsWith("'")) || (token.startsWith("\"") && token.endsWith("\""))) {
+                    token = token.substring(1, token.length() - 1);
+                }
+                segments.add(token);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(path.substring(i, end));
+                i = end;
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    private static String toJsonPath(List<String> path) {
+        StringBuilder sb = new StringBuilder("$");
+        for (String segment : path) {
+            if (!segment.isEmpty() && segment.chars().allMatch(Character::isDigit)) {
+                sb.append('[').append(segment).append(']');
+            } else if (segment.chars().allMatch(ch -> Character.isLetterOrDigit(ch) || ch == '_')) {
+                sb.append('.').append(segment);
+            } else {
+                sb.append("['").append(segment.replace("'", "\\'")).append("']");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,15 +1,16 @@
 package utilities;
 
 import com.jayway.jsonpath.*;
-import org.skyscreamer.jsonassert.Customization;
-import org.skyscreamer.jsonassert.JSONCompareMode;
-import org.skyscreamer.jsonassert.comparator.CustomComparator;
-import org.yaml.snakeyaml.Yaml;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 public class JsonHelper {
 
@@ -18,19 +19,31 @@ public class JsonHelper {
             .options(Option.SUPPRESS_EXCEPTIONS, Option.ALWAYS_RETURN_LIST)
             .build();
 
-    private static DocumentContext yamlContext;
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    // Reads of generic types (TypeRef) need a Jackson mapping provider; the documents stay parsed by json-smart
+    private static final Configuration TYPE_REF_CONF = Configuration.defaultConfiguration()
+            .mappingProvider(new JacksonMappingProvider(JSON_MAPPER));
+
+    private static final TypeRef<List<Object>> OBJECT_LIST = new TypeRef<>() {
+    };
+
+    // Compiled JsonPath expressions, shared by all threads. Bounded (least recently used is evicted first),
+    // since paths can be built from test data.
+    private static final int MAX_COMPILED_PATHS = Integer.getInteger("jsonpath.cache.size", 512);
+    private static final Map<String, JsonPath> COMPILED_PATHS = Collections.synchronizedMap(
+            new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JsonPath> eldest) {
+                    return size() > MAX_COMPILED_PATHS;
+                }
+            });
 
     // Method to load a yaml file content from yaml file and return it as HashMap<String, Object>
+    // The file is parsed once per JVM by FixtureRepository; every call returns a new copy
+    @SuppressWarnings("unchecked")
     public static HashMap<String, Object> loadYamlFile(String filePath) {
-        Yaml yaml = new Yaml();
-        try (InputStream in = JsonHelper.class.getClassLoader().getResourceAsStream(filePath)) {
-            if (in == null) {
-                throw new RuntimeException("Resource not found in classpath: " + filePath);
-            }
-            return yaml.load(in);  // Parses YAML into Map<String, Object> or List
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load YAML file from classpath: " + filePath, e);
-        }
+        return JSON_MAPPER.convertValue(FixtureRepository.getFile(filePath), HashMap.class);
     }
 
     /**
@@ -66,9 +79,38 @@ public class JsonHelper {
         }
     }
 
+    /**
+     * Get the compiled form of a JsonPath query, compiling it only on first use.
+     */
+    public static JsonPath compile(String jsonPathQuery) {
+        if (jsonPathQuery == null || jsonPathQuery.trim().isEmpty()) {
+            throw new IllegalArgumentException("JsonPath query cannot be null or empty");
+        }
+        JsonPath compiled = COMPILED_PATHS.get(jsonPathQuery);
+        if (compiled == null) {
+            compiled = JsonPath.compile(jsonPathQuery);
+            COMPILED_PATHS.put(jsonPathQuery, compiled);
+            RunMetrics.increment("jsonpath.compiled");
+        }
+        return compiled;
+    }
+
+    /**
+     * Parse a JSON string once, so that any number of JsonPath queries can be read from the result.
+     */
+    public static DocumentContext parse(String jsonString) {
+        if (jsonString == null || jsonString.trim().isEmpty()) {
+            throw new IllegalArgumentException("JSON string cannot be null or empty");
+        }
+        RunMetrics.increment("json.documents.parsed");
+        return JsonPath.parse(jsonString);
+    }
+
     /**
      * Extracts a value from JSON string using JsonPath query.
      * Supports deep nested paths, arrays, filters, etc.
+     * For more than one query on the same JSON, parse it once with {@link #parse(String)}
+     * (or use {@link RestResponse#document()}) and use the DocumentContext overloads.
      *
      * @param jsonString    The raw JSON response (e.g., from response.text())
      * @param jsonPathQuery JsonPath expression, e.g. "$.data.user.name" or "$['access_token']"
@@ -77,18 +119,42 @@ public class JsonHelper {
      * @return Extracted value or null if path not found (due to SUPPRESS_EXCEPTIONS)
      */
     public static <T> T extractValue(String jsonString, String jsonPathQuery, Class<T> expectedType) {
+        return extractValue(parse(jsonString), jsonPathQuery, expectedType);
+    }
+
+    /**
+     * Extracts a value from an already parsed JSON document using JsonPath query.
+     *
+     * @param document      The parsed JSON, e.g. from {@link RestResponse#document()}
+     * @param jsonPathQuery JsonPath expression, e.g. "$.data.user.name" or "$['access_token']"
+     * @param expectedType  Class of expected return type (String.class, Integer.class, List.class, etc.)
+     * @param <T>           Generic return type
+     * @return Extracted value
+     */
+    public static <T> T extractValue(DocumentContext document, String jsonPathQuery, Class<T> expectedType) {
+        return read(document, jsonPathQuery, compiled -> document.read(compiled, expectedType));
+    }
+
+    /**
+     * Extracts a value of a generic type, e.g. {@code new TypeRef<List<String>>() {}}, from a parsed JSON document.
+     */
+    public static <T> T extractValue(DocumentContext document, String jsonPathQuery, TypeRef<T> expectedType) {
+        return read(document, jsonPathQuery, compiled -> {
+            Object json = document.json();
+            return JsonPath.using(TYPE_REF_CONF).parse(json).read(compiled, expectedType);
+        });
+    }
+
+    private static <T> T read(DocumentContext document, String jsonPathQuery, Function<JsonPath, T> reader) {
         // Basic validation
-        if (jsonString == null || jsonString.trim().isEmpty()) {
-            throw new IllegalArgumentException("JSON string cannot be null or empty");
-        }
-        if (jsonPathQuery == null || jsonPathQuery.trim().isEmpty()) {
-            throw new IllegalArgumentException("JsonPath query cannot be null or empty");
+        if (document == null) {
+            throw new IllegalArgumentException("JSON document cannot be null");
         }
+        JsonPath compiled = compile(jsonPathQuery);
 
         // Perform extraction
         try {
-            //return JsonPath.using(CONF).parse(jsonString).read(jsonPathQuery, expectedType);
-            return JsonPath.parse(jsonString).read(jsonPathQuery, expectedType);
+            return reader.apply(compiled);
         } catch (Exception e) {
             throw new RuntimeException(
                     String.format("Failed to extract value using JsonPath '%s': %s",
@@ -106,6 +172,10 @@ public class JsonHelper {
         return extractValue(jsonString, jsonPathQuery, String.class);
     }
 
+    public static String extractString(DocumentContext document, String jsonPathQuery) {
+        return extractValue(document, jsonPathQuery, String.class);
+    }
+
     /**
      * Extract as Integer (useful for expires_in, counts, etc.)
      */
@@ -113,11 +183,19 @@ public class JsonHelper {
         return extractValue(jsonString, jsonPathQuery, Integer.class);
     }
 
+    public static Integer extractInteger(DocumentContext document, String jsonPathQuery) {
+        return extractValue(document, jsonPathQuery, Integer.class);
+    }
+
     /**
      * Extract as List (useful for arrays: $.items[*].id)
      */
     public static List<Object> extractList(String jsonString, String jsonPathQuery) {
-        return extractValue(jsonString, jsonPathQuery, List.class);
+        return extractList(parse(jsonString), jsonPathQuery);
+    }
+
+    public static List<Object> extractList(DocumentContext document, String jsonPathQuery) {
+        return extractValue(document, jsonPathQuery, OBJECT_LIST);
     }
 
     // Write a method to set a new or update value in a JSON string given a JsonPath and return the updated JSON string
@@ -144,24 +222,5 @@ public class JsonHelper {
         }
     }
 
-    public static CustomComparator customFieldsToIgnore(List<String> pathsToIgnore) {
-        List<Customization> customizations = new ArrayList<>();
-
-        for (String path : pathsToIgnore) {
-            if (path != null && !path.trim().isEmpty()) {
-                String cleanPath = path.trim();
-                // JSONAssert supports exactly this format: root.field[0].subfield or root.array[*].field
-                customizations.add(new Customization(cleanPath, (o1, o2) -> true));
-            }
-        }
-
-        CustomComparator comparator = new CustomComparator(
-                JSONCompareMode.LENIENT,  // or STRICT if you want exact match on other fields
-                customizations.toArray(new Customization[0])
-        );
-
-        return comparator;
-    }
-
     // Create a method
 }
@@ -5,11 +5,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -20,68 +18,38 @@ import java.util.stream.Collectors;
  */
 public class JsonUtils {
 
-    // Jackson ObjectMappers for YAML and JSON
-    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+    // Jackson ObjectMapper for JSON
     private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 
-    // Holds the entire YAML content after loading (key → scenario data)
-    private static Map<String, Object> loadedScenarios;
+    // YAML files are loaded and cached by FixtureRepository (parsed once per JVM, copy on read)
 
     /**
-     * Load the YAML file once (call this in @Before hook or at startup)
-     */
-    public static void loadYamlFile(String filePath) {
-        try {
-            InputStream inputStream = JsonUtils.class.getClassLoader().getResourceAsStream(filePath);
-            if (inputStream == null) {
-                throw new RuntimeException("YAML file not found: " + filePath);
-            }
-
-            loadedScenarios = YAML_MAPPER.readValue(inputStream, new TypeReference<>() {
-            });
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to load YAML file from classpath: " + filePath, e);
-        }
-    }
-
-    /**
-     * Get scenario data by top-level key (e.g., "Scenario1")
+     * Get scenario data by file and top-level key (e.g., "apiRequests/ScenarioRequests.yml", "Scenario1")
      * Returns as Map<String, Object> which preserves lists, strings, etc.
      */
     @SuppressWarnings("unchecked")
-    public static Map<String, Object> getScenario(String scenarioKey) {
-        if (loadedScenarios == null) {
-            throw new RuntimeException("YAML not loaded! Call loadYamlFile() first.");
-        }
-
-        Map<String, Object> scenario = (Map<String, Object>) loadedScenarios.get(scenarioKey);
-        if (scenario == null) {
-            throw new RuntimeException("Scenario not found: " + scenarioKey);
+    public static Map<String, Object> getScenario(String filePath, String scenarioKey) {
+        Object scenario = getScenarioAsObject(filePath, scenarioKey);
+        if (!(scenario instanceof Map)) {
+            throw new RuntimeException("Scenario is not a map: " + scenarioKey);
         }
-        return scenario;
+        return (Map<String, Object>) scenario;
     }
 
     /**
-     * Get the scenario data by top-level key (e.g., "Scenario1")
+     * Get the scenario data by file and top-level key (e.g., "Scenario1")
      * and return as Object (for flexibility)
      */
-    public static Object getScenarioAsObject(String scenarioKey) {
-        if (loadedScenarios == null) {
-            throw new RuntimeException("YAML not loaded! Call loadYamlFile() first.");
-        }
-        Object scenario = loadedScenarios.get(scenarioKey);
-        if (scenario == null) {
-            throw new RuntimeException("Scenario not found: " + scenarioKey);
-        }
-        return scenario;
+    public static Object getScenarioAsObject(String filePath, String scenarioKey) {
+        return FixtureRepository.getAsObject(filePath, scenarioKey);
     }
 
     /**
-     * Get config data by top-level key (e.g., "Base")
+     * Get config data by file and top-level key (e.g., "Base")
      * Returns as Map<String, Object> which preserves lists, strings, etc.
      */
-    public static Map<String, Object> getConfigContent(String configKey) {
-        return getScenario(configKey);
+    public static Map<String, Object> getConfigContent(String filePath, String configKey) {
+        return getScenario(filePath, configKey);
     }
 
     /**
@@ -129,8 +97,8 @@ public class JsonUtils {
     /**
      * Get headers from config as Map<String, String>
      */
-    public static Map<String, String> getHeaders(String key) {
-        Map<String, Object> raw = getConfigContent(key);
+    public static Map<String, String> getHeaders(String filePath, String key) {
+        Map<String, Object> raw = getConfigContent(filePath, key);
         return raw.entrySet().stream()
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
@@ -0,0 +1,124 @@
+package utilities;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of OAuth access tokens, shared by all worker threads.
+ * Tokens are keyed by token URL, client id and scope, and are valid until their "expires_in".
+ * Fetches are single-flight per key: concurrent workers that miss the cache share one in-flight request.
+ * Shortly before expiry the first caller starts a refresh in the background, and every caller (that one included)
+ * keeps using the still-valid token without waiting.
+ */
+public final class OAuthTokenCache {
+
+    private static final Logger logger = Logger.getLogger(OAuthTokenCache.class.getName());
+
+    // An access token and the moment (epoch millis) it expires
+    public record Token(String accessToken, long expiresAtMillis) {
+    }
+
+    private static final ConcurrentHashMap<String, Token> TOKENS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, CompletableFuture<Token>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    // Runs the refreshes ahead of expiry
+    private static final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private OAuthTokenCache() {
+        // utility
+    }
+
+    public static String key(String tokenUrl, String clientId, String scope) {
+        return tokenUrl + "|" + clientId + "|" + (scope == null ? "" : scope);
+    }
+
+    /**
+     * Get a valid token for the key, fetching it only when there is none or it has expired.
+     *
+     * @param key                The cache key, see {@link #key(String, String, String)}
+     * @param refreshAheadMillis How long before expiry the token is refreshed
+     * @param fetcher            Requests a new token from the OAuth API, on the calling thread
+     * @param refresher          Requests a new token on a background thread, so it must not depend on the
+     *                           caller's thread; null to refresh only once the token has expired
+     * @return A token that is valid at the time of the call
+     */
+    public static Token get(String key, long refreshAheadMillis, Supplier<Token> fetcher, Supplier<Token> refresher) {
+        Token current = TOKENS.get(key);
+        long now = System.currentTimeMillis();
+
+        if (current != null && now < current.expiresAtMillis()) {
+            RunMetrics.increment("oauth.token.cache.hits");
+            if (refresher != null && now >= current.expiresAtMillis() - refreshAheadMillis
+                    && !IN_FLIGHT.containsKey(key)) {
+                refreshAhead(key, refresher);
+            }
+            return current;
+        }
+
+        RunMetrics.increment("oauth.token.cache.misses");
+        try {
+            return fetchShared(key, fetcher).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // Refresh a token that is about to expire, in the background. Callers that find it expired in the meantime
+    // wait for this refresh instead of starting another. A failure is only logged, the current token is still valid.
+    private static void refreshAhead(String key, Supplier<Token> refresher) {
+        CompletableFuture<Token> refresh = new CompletableFuture<>();
+        if (IN_FLIGHT.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        RunMetrics.increment("oauth.token.cache.refreshes");
+        CompletableFuture.supplyAsync(refresher, refreshExecutor).whenComplete((token, error) -> {
+            if (error == null) {
+                TOKENS.put(key, token);
+                RunMetrics.increment("oauth.token.fetches");
+                refresh.complete(token);
+            } else {
+                logger.log(Level.WARNING, "Failed to refresh OAuth token ahead of expiry.", error);
+                refresh.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+            IN_FLIGHT.remove(key, refresh);
+        });
+    }
+
+    // Fetch on the calling thread, unless another thread is already fetching the same key
+    private static CompletableFuture<Token> fetchShared(String key, Supplier<Token> fetcher) {
+        CompletableFuture<Token> mine = new CompletableFuture<>();
+        CompletableFuture<Token> existing = IN_FLIGHT.putIfAbsent(key, mine);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            Token token = fetcher.get();
+            TOKENS.put(key, token);
+            RunMetrics.increment("oauth.token.fetches");
+            mine.complete(token);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            IN_FLIGHT.remove(key, mine);
+        }
+        return mine;
+    }
+
+    // Cache statistics, for attaching to the scenario report
+    public static String stats() {
+        return "hits=" + RunMetrics.get("oauth.token.cache.hits")
+                + ", misses=" + RunMetrics.get("oauth.token.cache.misses")
+                + ", refreshes=" + RunMetrics.get("oauth.token.cache.refreshes")
+                + ", fetches=" + RunMetrics.get("oauth.token.fetches");
+    }
+}
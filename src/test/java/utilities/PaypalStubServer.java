@@ -0,0 +1,414 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * In-JVM stand-in for the PayPal sandbox endpoints of PaypalAPIs.feature: the OAuth token and webhook
+ * create/get/list/patch/delete, with webhooks kept in memory. Every request is handled on its own virtual thread,
+ * so the API suite can run offline at a high thread.count without the sandbox's latency and rate limits.
+ * <p>
+ * Used when -Dapi.stub=true, or when a URL in the "Base" section of restconfig_properties.yml is "stub".
+ * The server starts on first use (a free loopback port unless "port" is set) and stops at the end of the run.
+ * Latency and errors can be injected through the "Stub" section, or -Dapi.stub.latencyMillis,
+ * -Dapi.stub.latencyJitterMillis, -Dapi.stub.errorRate and -Dapi.stub.errorStatus for a single run.
+ */
+public final class PaypalStubServer {
+
+    private static final Logger logger = Logger.getLogger(PaypalStubServer.class.getName());
+
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+    private static final String STUB = "stub";
+
+    private static final String TOKEN_PATH = "/v1/oauth2/token";
+    private static final String WEBHOOKS_PATH = "/v1/notifications/webhooks";
+    private static final String ERRORS_LINK = "https://developer.paypal.com/docs/api/webhooks/#errors";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // A stored webhook, with its creation order for listing
+    private record Webhook(long sequence, ObjectNode json) {
+    }
+
+    private static final Map<String, Webhook> webhooks = new ConcurrentHashMap<>();
+    // Webhook id by URL, so two concurrent creates of the same URL can't both succeed
+    private static final Map<String, String> webhookIdsByUrl = new ConcurrentHashMap<>();
+    private static final Set<String> issuedTokens = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private static HttpServer server;
+    private static ExecutorService executor;
+    private static volatile String baseUrl;
+    private static volatile JsonNode config;
+
+    private PaypalStubServer() {
+        // utility
+    }
+
+    // Read on every request (latency, errors), so looked up once
+    private static JsonNode config() {
+        if (config == null) {
+            // Missing section or keys: defaults
+            config = FixtureRepository.getFile(CONFIG_FILE).path("Stub");
+        }
+        return config;
+    }
+
+    // -Dapi.stub.<name> for one run, else the "Stub" section
+    private static double setting(String name, double defaultValue) {
+        String value = System.getProperty("api.stub." + name);
+        return value != null ? Double.parseDouble(value.trim()) : config().path(name).asDouble(defaultValue);
+    }
+
+    // Whether the configured base URL is served by the stub
+    public static boolean isStubbed(String configuredUrl) {
+        return Boolean.getBoolean("api.stub") || STUB.equalsIgnoreCase(configuredUrl.trim());
+    }
+
+    /**
+     * The base URL to call: the stub's (started if needed) when the URL is stubbed, else the configured one.
+     * Used by APIManager for the "Base" URLs.
+     */
+    public static String resolve(String configuredUrl) {
+        return isStubbed(configuredUrl) ? start() : configuredUrl;
+    }
+
+    // Whether requests to this base URL go to the stub, which has no rate limit to respect
+    public static boolean serves(String url) {
+        String stubUrl = baseUrl;
+        return stubUrl != null && url.startsWith(stubUrl);
+    }
+
+    // Start the server once per JVM and return its base URL
+    public static synchronized String start() {
+        if (baseUrl != null) {
+            return baseUrl;
+        }
+        try {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    config().path("port").asInt(0));
+            server = HttpServer.create(address, config().path("backlog").asInt(1024));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start the PayPal stub server", e);
+        }
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext(TOKEN_PATH, exchange -> handle(exchange, PaypalStubServer::token));
+        server.createContext(WEBHOOKS_PATH, exchange -> handle(exchange, PaypalStubServer::webhooks));
+        server.start();
+        baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        logger.info("PayPal stub server listening on " + baseUrl);
+        RunMetrics.note("API calls served by the PayPal stub server at " + baseUrl);
+        return baseUrl;
+    }
+
+    // Stop the server if it was started. Called once from @AfterAll.
+    public static synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        executor.close();
+        server = null;
+        executor = null;
+        baseUrl = null;
+        webhooks.clear();
+        webhookIdsByUrl.clear();
+        issuedTokens.clear();
+    }
+
+    private record Reply(int status, JsonNode body) {
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        Reply handle(HttpExchange exchange, String body) throws IOException;
+    }
+
+    private static void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        try (exchange) {
+            RunMetrics.increment("api.stub.requests");
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            injectLatency();
+            Reply reply = injectedError();
+            if (reply == null) {
+                try {
+                    reply = endpoint.handle(exchange, body);
+                } catch (IOException | RuntimeException e) {
+                    reply = error(400, "MALFORMED_REQUEST_JSON", "The request JSON is not well formed: " + e.getMessage());
+                }
+            }
+            send(exchange, reply);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void injectLatency() throws InterruptedException {
+        long latency = (long) setting("latencyMillis", 0);
+        long jitter = (long) setting("latencyJitterMillis", 0);
+        if (jitter > 0) {
+            latency += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+    }
+
+    // A failure in "errorRate" (0..1) of the requests, to exercise the retries and circuit breakers
+    private static Reply injectedError() {
+        double errorRate = setting("errorRate", 0);
+        if (errorRate <= 0 || ThreadLocalRandom.current().nextDouble() >= errorRate) {
+            return null;
+        }
+        RunMetrics.increment("api.stub.errors.injected");
+        int status = (int) setting("errorStatus", 503);
+        return error(status, status == 429 ? "RATE_LIMIT_REACHED" : "INTERNAL_SERVICE_ERROR",
+                "Error injected by the PayPal stub server.");
+    }
+
+    private static void send(HttpExchange exchange, Reply reply) throws IOException {
+        exchange.getResponseHeaders().set("Paypal-Debug-Id", debugId());
+        if (reply.status() == 429) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+        if (reply.body() == null) {
+            exchange.sendResponseHeaders(reply.status(), -1);
+            return;
+        }
+        byte[] bytes = MAPPER.writeValueAsBytes(reply.body());
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(reply.status(), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // POST /v1/oauth2/token with Basic auth and grant_type=client_credentials
+    private static Reply token(HttpExchange exchange, String body) {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return error(405, "METHOD_NOT_SUPPORTED", "The method is not supported for this resource.");
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            ObjectNode reply = MAPPER.createObjectNode()
+                    .put("error", "invalid_client")
+                    .put("error_description", "Client Authentication failed");
+            return new Reply(401, reply);
+        }
+        if (!"client_credentials".equals(form(body).get("grant_type"))) {
+            ObjectNode reply = MAPPER.createObjectNode()
+                    .put("error", "unsupported_grant_type")
+                    .put("error_description", "Grant Type is NULL or not supported");
+            return new Reply(400, reply);
+        }
+        String accessToken = "A21AA" + UUID.randomUUID().toString().replace("-", "");
+        issuedTokens.add(accessToken);
+        ObjectNode reply = MAPPER.createObjectNode()
+                .put("scope", "https://uri.paypal.com/services/applications/webhooks")
+                .put("access_token", accessToken)
+                .put("token_type", "Bearer")
+                .put("app_id", "APP-STUB")
+                .put("expires_in", config().path("tokenExpiresInSeconds").asInt(32400))
+                .put("nonce", debugId());
+        return new Reply(200, reply);
+    }
+
+    private static Map<String, String> form(String body) {
+        Map<String, String> fields = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                fields.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return fields;
+    }
+
+    // /v1/notifications/webhooks and /v1/notifications/webhooks/{id}
+    private static Reply webhooks(HttpExchange exchange, String body) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !issuedTokens.contains(authorization.replaceFirst("^Bearer ", ""))) {
+            ObjectNode reply = MAPPER.createObjectNode()
+                    .put("error", "invalid_token")
+                    .put("error_description", "Token signature verification failed");
+            return new Reply(401, reply);
+        }
+        String path = exchange.getRequestURI().getPath().substring(WEBHOOKS_PATH.length());
+        String method = exchange.getRequestMethod();
+        if (path.isEmpty() || path.equals("/")) {
+            switch (method) {
+                case "POST":
+                    return create(MAPPER.readTree(body));
+                case "GET":
+                    return list();
+                default:
+                    return error(405, "METHOD_NOT_SUPPORTED", "The method is not supported for this resource.");
+            }
+        }
+        String id = path.substring(1);
+        switch (method) {
+            case "GET":
+                Webhook webhook = webhooks.get(id);
+                return webhook == null ? notFound() : new Reply(200, webhook.json());
+            case "PATCH":
+                return patch(id, MAPPER.readTree(body));
+            case "DELETE":
+                Webhook deleted = webhooks.remove(id);
+                if (deleted == null) {
+                    return notFound();
+                }
+                webhookIdsByUrl.remove(deleted.json().path("url").asText(), id);
+                return new Reply(204, null);
+            default:
+                return error(405, "METHOD_NOT_SUPPORTED", "The method is not supported for this resource.");
+        }
+    }
+
+    private static Reply create(JsonNode request) {
+        Reply invalid = validate(request.path("url"), request.path("event_types"));
+        if (invalid != null) {
+            return invalid;
+        }
+        String url = request.path("url").asText();
+        String id = UUID.randomUUID().toString().replace("-", "").substring(0, 17).toUpperCase();
+        if (webhookIdsByUrl.putIfAbsent(url, id) != null) {
+            return error(400, "WEBHOOK_URL_ALREADY_EXISTS", "Webhook URL already exists");
+        }
+        ObjectNode webhook = MAPPER.createObjectNode();
+        webhook.put("id", id);
+        webhook.put("url", url);
+        webhook.set("event_types", eventTypes(request.path("event_types")));
+        webhook.set("links", links(id));
+        webhooks.put(id, new Webhook(sequence.incrementAndGet(), webhook));
+        return new Reply(201, webhook);
+    }
+
+    private static Reply list() {
+        ArrayNode list = MAPPER.createArrayNode();
+        webhooks.values().stream()
+                .sorted(Comparator.comparingLong(Webhook::sequence))
+                .forEach(webhook -> list.add(webhook.json()));
+        ObjectNode reply = MAPPER.createObjectNode();
+        reply.set("webhooks", list);
+        return new Reply(200, reply);
+    }
+
+    // JSON Patch "add"/"replace" of /url and /event_types, applied atomically to a copy of the webhook
+    private static Reply patch(String id, JsonNode operations) {
+        Webhook current = webhooks.get(id);
+        if (current == null) {
+            return notFound();
+        }
+        if (!operations.isArray()) {
+            return error(400, "VALIDATION_ERROR", "Invalid data provided: the patch request must be an array.");
+        }
+        ObjectNode updated = current.json().deepCopy();
+        for (JsonNode operation : operations) {
+            String op = operation.path("op").asText();
+            String field = operation.path("path").asText();
+            if (!(op.equals("replace") || op.equals("add"))
+                    || !(field.equals("/url") || field.equals("/event_types"))) {
+                return error(400, "VALIDATION_ERROR", "Invalid data provided: unsupported patch operation "
+                        + op + " " + field + ".");
+            }
+            if (field.equals("/url")) {
+                updated.set("url", operation.path("value"));
+            } else {
+                updated.set("event_types", eventTypes(operation.path("value")));
+            }
+        }
+        Reply invalid = validate(updated.path("url"), updated.path("event_types"));
+        if (invalid != null) {
+            return invalid;
+        }
+        String oldUrl = current.json().path("url").asText();
+        String newUrl = updated.path("url").asText();
+        if (!newUrl.equals(oldUrl)) {
+            if (webhookIdsByUrl.putIfAbsent(newUrl, id) != null) {
+                return error(400, "WEBHOOK_URL_ALREADY_EXISTS", "Webhook URL already exists");
+            }
+            webhookIdsByUrl.remove(oldUrl, id);
+        }
+        Webhook replaced = webhooks.computeIfPresent(id, (key, webhook) -> new Webhook(webhook.sequence(), updated));
+        return replaced == null ? notFound() : new Reply(200, updated);
+    }
+
+    private static Reply validate(JsonNode url, JsonNode eventTypes) {
+        if (!url.isTextual() || !url.asText().startsWith("https://")) {
+            return error(400, "VALIDATION_ERROR", "Invalid data provided: url must be an https URL.");
+        }
+        if (!eventTypes.isArray() || eventTypes.isEmpty()) {
+            return error(400, "VALIDATION_ERROR", "Invalid data provided: event_types must not be empty.");
+        }
+        return null;
+    }
+
+    private static ArrayNode eventTypes(JsonNode requested) {
+        ArrayNode eventTypes = MAPPER.createArrayNode();
+        for (JsonNode eventType : requested) {
+            String name = eventType.path("name").asText();
+            eventTypes.addObject()
+                    .put("name", name)
+                    .put("description", "Stub description of " + name);
+        }
+        return eventTypes;
+    }
+
+    private static ArrayNode links(String id) {
+        String href = "https://api-m.sandbox.paypal.com" + WEBHOOKS_PATH + "/" + id;
+        ArrayNode links = MAPPER.createArrayNode();
+        links.addObject().put("href", href).put("rel", "self").put("method", "GET");
+        links.addObject().put("href", href).put("rel", "update").put("method", "PATCH");
+        links.addObject().put("href", href).put("rel", "delete").put("method", "DELETE");
+        return links;
+    }
+
+    private static Reply notFound() {
+        return error(404, "INVALID_RESOURCE_ID", "Resource id is invalid.");
+    }
+
+    // PayPal's error body
+    private static Reply error(int status, String name, String message) {
+        ObjectNode error = MAPPER.createObjectNode()
+                .put("name", name)
+                .put("message", message)
+                .put("debug_id", debugId())
+                .put("information_link", ERRORS_LINK);
+        error.putArray("details");
+        error.putArray("links");
+        return new Reply(status, error);
+    }
+
+    private static String debugId() {
+        return HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong()).substring(0, 13);
+    }
+}
@@ -0,0 +1,68 @@
+package utilities;
+
+import com.microsoft.playwright.APIRequestContext;
+import com.microsoft.playwright.APIResponse;
+import com.microsoft.playwright.PlaywrightException;
+import com.microsoft.playwright.options.FormData;
+import com.microsoft.playwright.options.RequestOptions;
+import manager.APIManager;
+import manager.PlaywrightManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transport on top of Playwright's APIRequestContext, reused from the worker's context pool.
+ */
+public class PlaywrightTransport implements HttpTransport {
+
+    private final APIManager apiManager;
+
+    public PlaywrightTransport(APIManager apiManager) {
+        this.apiManager = apiManager;
+    }
+
+    @Override
+    public RestResponse send(RestRequest request) {
+        APIRequestContext context;
+        try {
+            context = apiManager.leaseRequestContext(request.baseURL(), request.baseHeaders());
+        } catch (PlaywrightException e) {
+            PlaywrightManager.reportFailure(e);
+            throw e;
+        }
+
+        RequestOptions options = RequestOptions.create()
+                .setMethod(request.method())
+                .setTimeout(request.timeoutMillis());
+        request.headers().forEach(options::setHeader);
+        if (request.form() != null) {
+            FormData formData = FormData.create();
+            request.form().forEach(formData::set);
+            options.setForm(formData);
+        } else if (request.body() != null) {
+            options.setData(request.body());
+        }
+
+        APIResponse response;
+        try {
+            response = context.fetch(request.path(), options);
+        } catch (PlaywrightException e) {
+            // A dead driver is restarted for the next scenario
+            PlaywrightManager.reportFailure(e);
+            // fetch fails this way on connection errors and timeouts (TimeoutError); reported like the jdk transport's
+            throw new UncheckedIOException(new IOException("Failed to call " + request.method() + " " + request.path()
+                    + ": " + e.getMessage().lines().findFirst().orElse(e.toString()), e));
+        }
+        try {
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(response.headers());
+            return new RestResponse(response.status(), response.statusText(), response.text(), headers);
+        } finally {
+            // The pooled context lives for the whole run; without this the driver keeps every response body buffered
+            response.dispose();
+        }
+    }
+}
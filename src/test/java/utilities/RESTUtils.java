@@ -1,26 +1,30 @@
 package utilities;
 
-import com.microsoft.playwright.APIRequest;
-import com.microsoft.playwright.APIRequestContext;
-import com.microsoft.playwright.APIResponse;
-import com.microsoft.playwright.options.FormData;
-import com.microsoft.playwright.options.RequestOptions;
+import com.jayway.jsonpath.DocumentContext;
 import manager.APIManager;
 
+import java.io.UncheckedIOException;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class RESTUtils {
 
     private final APIManager apiManager;
 
-    private APIRequestContext apiRequestContext;
-    private APIResponse response;
+    private String clientBaseURL;
+    private Map<String, String> clientHeaders;
+    private RestResponse response;
     private String OAuthResourceURL;
     private String tranResourceURL;
     private String apiBodyPayload;
     private HashMap<String, String> apiCustomHeaders;
+    // Retry and hedge budgets and the attempt log of this scenario
+    private final ApiRetrier retrier = new ApiRetrier();
+    // Thread-safe, for the token refreshes that run in the background
+    private static final HttpTransport REFRESH_TRANSPORT = new JdkHttpTransport();
 
     public RESTUtils(APIManager apiManager) {
         this.apiManager = apiManager;
@@ -50,36 +54,82 @@ public class RESTUtils {
         this.apiCustomHeaders = headers;
     }
 
-    // Initialize the OAuth API Request Context
+    // Initialize the OAuth API client (base URL and headers; the resource path is passed per request)
     public void setupOAuthRequest() {
-        this.apiRequestContext = apiManager.getApiRequest().newContext(
-                new APIRequest.NewContextOptions()
-                        .setBaseURL(apiManager.getOAuthBaseURL() + OAuthResourceURL)
-                        .setTimeout(apiManager.getTimeout())
-                        .setExtraHTTPHeaders(apiManager.getOAuthAPIHeaders())
-        );
+        this.clientBaseURL = apiManager.getOAuthBaseURL();
+        this.clientHeaders = apiManager.getOAuthAPIHeaders();
     }
 
-    // Initialize the Transaction API Request Context
+    // Initialize the Transaction API client (base URL and headers; the resource path is passed per request)
     public void setupTranRequest() {
-        this.apiRequestContext = apiManager.getApiRequest().newContext(
-                new APIRequest.NewContextOptions()
-                        .setBaseURL(apiManager.getTranBaseURL() + tranResourceURL)
-                        .setTimeout(apiManager.getTimeout())
-                        .setExtraHTTPHeaders(apiManager.getTranAPIHeaders())
-        );
-    }
-
-    // Get the current API Request Context
-    public APIRequestContext getApiRequestContext() {
-        if (apiRequestContext == null) {
-            throw new IllegalStateException("API Request Context is not initialized. Call setupOAuthRequest() or setupTranRequest() first.");
+        this.clientBaseURL = apiManager.getTranBaseURL();
+        this.clientHeaders = apiManager.getTranAPIHeaders();
+    }
+
+    // Send a request to the current client's base URL through the configured transport
+    private RestResponse send(String method, String resourcePath, Map<String, String> headers,
+                              String body, Map<String, String> form) {
+        if (clientBaseURL == null) {
+            throw new IllegalStateException("API client is not initialized. Call setupOAuthRequest() or setupTranRequest() first.");
+        }
+        RestRequest request = new RestRequest(method, clientBaseURL, resourcePath, clientHeaders,
+                headers, body, form, apiManager.getTimeout());
+        HttpTransport transport = apiManager.getTransport();
+        if (!transport.callsNetwork()) {
+            response = transport.send(request);
+            return response;
+        }
+        // Skipped at once when the host is known to be down, instead of waiting out the timeout again. The breaker
+        // sees one outcome per call, after the retries, so one flaky call doesn't count as several failures
+        CircuitBreaker breaker = CircuitBreaker.forUrl(request.baseURL());
+        breaker.beforeCall();
+        try {
+            // Transient failures of idempotent requests are retried, slow GETs hedged (thread-safe transport only)
+            response = retrier.execute(request, this::sendOnce, transport instanceof JdkHttpTransport);
+        } catch (UncheckedIOException e) {
+            breaker.onFailure(e.toString());
+            throw e;
+        }
+        breaker.onStatus(response.status(), response.statusText());
+        return response;
+    }
+
+    // One attempt, within the shared per-host rate limit
+    private RestResponse sendOnce(RestRequest request) {
+        HttpTransport transport = apiManager.getTransport();
+        RestResponse result;
+        for (int attempt = 0; ; attempt++) {
+            // Wait for the shared per-host rate limit; a 429 wasn't processed, so it is sent again after Retry-After
+            RateLimiter.acquire(request);
+            try {
+                result = transport.send(request);
+            } catch (UncheckedIOException e) {
+                throw new ApiRetrier.AttemptFailedException(e);
+            }
+            if (!RateLimiter.onResponse(request, result) || attempt >= RateLimiter.maxRetries()) {
+                break;
+            }
         }
-        return apiRequestContext;
+        return result;
     }
 
     // Get OAuth token from the OAuth API with client id and client secret
-    public APIResponse getOAuthToken() {
+    public RestResponse getOAuthToken() {
+        RestRequest request = oAuthTokenRequest();
+        // Make the POST request to get the OAuth token
+        setupOAuthRequest();
+        send("POST", OAuthResourceURL, request.headers(), null, request.form());
+
+        // Check for successful response
+        if (response.status() != 200) {
+            throw new RuntimeException("Failed to get OAuth token. Status: "
+                    + response.status() + " - " + response.statusText());
+        }
+        return response;
+    }
+
+    // The OAuth token request, with client id and client secret
+    private RestRequest oAuthTokenRequest() {
         // Get the Client ID and Client Secret from YAML if not provided
         String clientId = apiManager.getOAuthSecrets().get("client_id").toString();
         String clientSecret = apiManager.getOAuthSecrets().get("client_secret").toString();
@@ -92,74 +142,81 @@ public class RESTUtils {
         //Map<String, Object> formMap = JsonUtils.getConfigContent("OAuthBodyForm");
         Map<String, Object> formMap = apiManager.getOAuthBodyForm();
 
-        // Build FormData dynamically
-        FormData formData = FormData.create();
+        // Build form data dynamically
+        Map<String, String> formData = new LinkedHashMap<>();
         formMap.forEach((key, value) -> {
             // Convert value to String (handles String, int, boolean, etc.)
-            formData.set(key, String.valueOf(value));
+            formData.put(key, String.valueOf(value));
         });
 
-        // Make the POST request to get the OAuth token
-        response = apiRequestContext.post("",
-                RequestOptions.create()
-                        .setHeader("Authorization", basicAuth)
-                        .setForm(formData)
-        );
+        return new RestRequest("POST", apiManager.getOAuthBaseURL(), OAuthResourceURL, apiManager.getOAuthAPIHeaders(),
+                Map.of("Authorization", basicAuth), null, formData, apiManager.getTimeout());
+    }
 
-        // Check for successful response
-        if (response.status() != 200) {
-            throw new RuntimeException("Failed to get OAuth token. Status: "
-                    + response.status() + " - " + response.statusText());
+    // Get an OAuth access token from the process-wide cache, requesting a new one only when needed
+    public String getOAuthAccessToken() {
+        String clientId = apiManager.getOAuthSecrets().get("client_id").toString();
+        Object scope = apiManager.getOAuthBodyForm().get("scope");
+        String key = OAuthTokenCache.key(apiManager.getOAuthBaseURL() + OAuthResourceURL, clientId,
+                scope == null ? null : scope.toString());
+        return OAuthTokenCache.get(key, apiManager.getOAuthTokenRefreshAheadMillis(), this::fetchOAuthToken,
+                refresher()).accessToken();
+    }
+
+    // Request a new OAuth token and read its lifetime from "expires_in"
+    private OAuthTokenCache.Token fetchOAuthToken() {
+        return token(getOAuthToken());
+    }
+
+    // Requests a token off this scenario's thread: the request is built here, and sent on the shared JDK client
+    // without touching this scenario's client or its thread-bound transport. None when the API isn't called
+    // (cassette replay).
+    private Supplier<OAuthTokenCache.Token> refresher() {
+        if (!apiManager.getTransport().callsNetwork()) {
+            return null;
         }
-        return response;
+        RestRequest request = oAuthTokenRequest();
+        return () -> {
+            RateLimiter.acquire(request);
+            RestResponse tokenResponse = REFRESH_TRANSPORT.send(request);
+            if (tokenResponse.status() != 200) {
+                throw new RuntimeException("Failed to refresh OAuth token. Status: "
+                        + tokenResponse.status() + " - " + tokenResponse.statusText());
+            }
+            return token(tokenResponse);
+        };
+    }
+
+    private static OAuthTokenCache.Token token(RestResponse response) {
+        DocumentContext tokenResponse = response.document();
+        String accessToken = JsonHelper.extractString(tokenResponse, "$.access_token");
+        Integer expiresIn = JsonHelper.extractInteger(tokenResponse, "$.expires_in");
+        return new OAuthTokenCache.Token(accessToken, System.currentTimeMillis() + expiresIn * 1000L);
     }
 
     // Perform the POST request to the Transaction API
-    public APIResponse postTransaction() {
-        RequestOptions requestOptions = RequestOptions.create().setData(apiBodyPayload);
-        //apiCustomHeaders.forEach((key, value) -> requestOptions.setHeader(key, value));
-        // Above line can be replaced with the below line for simplicity
-        apiCustomHeaders.forEach(requestOptions::setHeader);
-        response = apiRequestContext.post("", requestOptions);
-        return response;
+    public RestResponse postTransaction() {
+        return send("POST", tranResourceURL, apiCustomHeaders, apiBodyPayload, null);
     }
 
     // Perform the GET request to the Transaction API
-    public APIResponse getTransaction() {
-        RequestOptions requestOptions = RequestOptions.create();
-        apiCustomHeaders.forEach(requestOptions::setHeader);
-        response = apiRequestContext.get("", requestOptions);
-        return response;
+    public RestResponse getTransaction() {
+        return send("GET", tranResourceURL, apiCustomHeaders, null, null);
     }
 
     // Perform the PUT request to the Transaction API
-    public APIResponse putTransaction() {
-        RequestOptions requestOptions = RequestOptions.create().setData(apiBodyPayload);
-        //apiCustomHeaders.forEach((key, value) -> requestOptions.setHeader(key, value));
-        // Above line can be replaced with the below line for simplicity
-        apiCustomHeaders.forEach(requestOptions::setHeader);
-        response = apiRequestContext.put("", requestOptions);
-        return response;
+    public RestResponse putTransaction() {
+        return send("PUT", tranResourceURL, apiCustomHeaders, apiBodyPayload, null);
     }
 
     // Perform the PATCH request to the Transaction API
-    public APIResponse patchTransaction() {
-        RequestOptions requestOptions = RequestOptions.create().setData(apiBodyPayload);
-        //apiCustomHeaders.forEach((key, value) -> requestOptions.setHeader(key, value));
-        // Above line can be replaced with the below line for simplicity
-        apiCustomHeaders.forEach(requestOptions::setHeader);
-        response = apiRequestContext.patch("", requestOptions);
-        return response;
+    public RestResponse patchTransaction() {
+        return send("PATCH", tranResourceURL, apiCustomHeaders, apiBodyPayload, null);
     }
 
     // Perform the DELETE request to the Transaction API
-    public APIResponse deleteTransaction() {
-        RequestOptions requestOptions = RequestOptions.create();
-        //apiCustomHeaders.forEach((key, value) -> requestOptions.setHeader(key, value));
-        // Above line can be replaced with the below line for simplicity
-        apiCustomHeaders.forEach(requestOptions::setHeader);
-        response = apiRequestContext.delete("", requestOptions);
-        return response;
+    public RestResponse deleteTransaction() {
+        return send("DELETE", tranResourceURL, apiCustomHeaders, null, null);
     }
 
     // Get the API response status code
@@ -186,17 +243,24 @@ public class RESTUtils {
         return response.text();
     }
 
-    // Dispose the APIRequestContext to prevent memory leaks
-    public void disposeContext() {
-        if (apiRequestContext != null) {
-            try {
-                apiRequestContext.dispose();
-            } catch (Exception e) {
-                // Logging the exception instead of throwing and failing the test
-                System.err.println("Error disposing APIRequestContext: " + e.getMessage());
-            } finally {
-                apiRequestContext = null;  // Ensure it's cleared
-            }
+    // Get the API response body parsed as JSON, for JsonPath queries.
+    // Parsed once per response; the next API call replaces the response and with it the parsed document.
+    public DocumentContext getResponseDocument() {
+        if (response == null) {
+            throw new IllegalStateException("API response is not available. Make sure to perform an API call before reading the response body.");
+        }
+        return response.document();
+    }
+
+    // Release the API client at the end of the scenario.
+    // Playwright request contexts are pooled per worker and disposed once at the end of the run (APIRequestContextPool.disposeAll)
+    public void releaseContext() {
+        String attempts = retrier.attemptLog();
+        if (!attempts.isEmpty() && apiManager.getScenario() != null) {
+            apiManager.getScenario().attach(attempts, "text/plain", "🔁 API Attempts");
         }
+        clientBaseURL = null;
+        clientHeaders = null;
+        response = null;
     }
 }
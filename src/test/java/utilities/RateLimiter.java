@@ -0,0 +1,197 @@
+package utilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URI;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide client-side rate limit for the API calls of all worker threads, so that parallel runs stay
+ * under the sandbox's 429 limits instead of tripping them. One token bucket per host and endpoint class
+ * (endpoint classes are matched by path prefix, see the "RateLimit" section of restconfig_properties.yml).
+ * <p>
+ * A 429 pauses the bucket for the response's Retry-After and halves its rate; the rate then grows back
+ * linearly towards the configured one. Worker JVMs of the coordinator mode each get an equal share of the rate.
+ * Time spent waiting for a token is reported as "ratelimit.throttled.ms".
+ */
+public final class RateLimiter {
+
+    private static final Logger logger = Logger.getLogger(RateLimiter.class.getName());
+
+    private static final String CONFIG_FILE = "properties/restconfig_properties.yml";
+
+    private static final Map<String, Bucket> BUCKETS = new ConcurrentHashMap<>();
+    private static volatile JsonNode config;
+
+    private RateLimiter() {
+        // utility
+    }
+
+    // Token bucket of one host and endpoint class. Tokens may go negative: they are reserved by waiting callers.
+    private static final class Bucket {
+        private final String name;
+        private final double maxRate;
+        private final double minRate;
+        private final double burst;
+        private final double recoveryPerSecond;
+        private double rate;
+        private double tokens;
+        // Tokens are only refilled from this point on; in the future while paused by a Retry-After
+        private long refillFromNanos = System.nanoTime();
+        private long lastRateChangeNanos = System.nanoTime();
+        private int tooManyRequests;
+
+        private Bucket(String name, double maxRate, double burst, double minRate, double recoveryPerSecond) {
+            this.name = name;
+            this.maxRate = maxRate;
+            this.rate = maxRate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.minRate = Math.min(minRate, maxRate);
+            this.recoveryPerSecond = recoveryPerSecond;
+        }
+
+        // Take a token, returning how long the caller has to wait for it
+        private synchronized long reserveNanos() {
+            long now = System.nanoTime();
+            recover(now);
+            if (now > refillFromNanos) {
+                tokens = Math.min(burst, tokens + (now - refillFromNanos) / 1e9 * rate);
+                refillFromNanos = now;
+            }
+            tokens -= 1;
+            long paused = Math.max(0, refillFromNanos - now);
+            return paused + (tokens < 0 ? (long) (-tokens / rate * 1e9) : 0);
+        }
+
+        // Grow the rate back towards the configured one since the last 429
+        private void recover(long now) {
+            if (rate < maxRate) {
+                rate = Math.min(maxRate, rate + recoveryPerSecond * (now - lastRateChangeNanos) / 1e9);
+            }
+            lastRateChangeNanos = now;
+        }
+
+        // Pause the bucket and halve its rate
+        private synchronized void tooManyRequests(long retryAfterNanos) {
+            long now = System.nanoTime();
+            recover(now);
+            tooManyRequests++;
+            rate = Math.max(minRate, rate / 2);
+            tokens = Math.min(tokens, 0);
+            refillFromNanos = Math.max(refillFromNanos, now + retryAfterNanos);
+            logger.warning("429 from " + name + ", pausing for " + TimeUnit.NANOSECONDS.toMillis(retryAfterNanos)
+                    + " ms and lowering the rate to " + String.format("%.2f", rate) + "/s");
+        }
+
+        private synchronized String describe() {
+            return name + ": " + String.format("%.2f", maxRate) + "/s configured, " + String.format("%.2f", rate)
+                    + "/s at the end, " + tooManyRequests + " x 429";
+        }
+    }
+
+    private static JsonNode config() {
+        if (config == null) {
+            // Missing section or keys: defaults
+            config = FixtureRepository.getFile(CONFIG_FILE).path("RateLimit");
+        }
+        return config;
+    }
+
+    private static boolean enabled() {
+        return config().path("enabled").asBoolean(true);
+    }
+
+    // How many times a request that got a 429 is sent again (a 429 means it wasn't processed)
+    public static int maxRetries() {
+        return config().path("maxRetriesOn429").asInt(3);
+    }
+
+    private static Bucket bucket(RestRequest request) {
+        String host = URI.create(request.baseURL()).getHost();
+        String path = request.path() == null ? "" : request.path();
+        JsonNode endpointClass = null;
+        for (JsonNode candidate : config().path("endpointClasses")) {
+            if (path.startsWith(candidate.path("pathPrefix").asText())) {
+                endpointClass = candidate;
+                break;
+            }
+        }
+        String className = endpointClass == null ? "default" : endpointClass.path("name").asText();
+        JsonNode settings = endpointClass == null ? config() : endpointClass;
+        return BUCKETS.computeIfAbsent(host + "|" + className, name -> {
+            // Each worker JVM gets its share of the rate
+            int jvms = System.getProperty("worker.id") == null ? 1 : Integer.getInteger("workers.jvm.count", 1);
+            double rate = settings.path("ratePerSecond").asDouble(config().path("ratePerSecond").asDouble(10)) / jvms;
+            double burst = Math.max(1, settings.path("burst").asDouble(config().path("burst").asDouble(5)) / jvms);
+            return new Bucket(name, rate, burst, config().path("minRatePerSecond").asDouble(0.5) / jvms,
+                    config().path("recoveryPerSecond").asDouble(0.1) / jvms);
+        });
+    }
+
+    // Wait until the request may be sent. Called by RESTUtils before every request.
+    public static void acquire(RestRequest request) {
+        // The local stub server has no rate limit to respect
+        if (!enabled() || PaypalStubServer.serves(request.baseURL())) {
+            return;
+        }
+        long waitNanos = bucket(request).reserveNanos();
+        if (waitNanos <= 0) {
+            return;
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        RunMetrics.increment("ratelimit.throttled.calls");
+        RunMetrics.add("ratelimit.throttled.ms", waitMillis);
+        RunMetrics.max("ratelimit.throttled.ms", waitMillis);
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the rate limit of " + request.baseURL(), e);
+        }
+    }
+
+    /**
+     * Feed the response back into the limiter.
+     *
+     * @return true if the response was a 429, i.e. the request was not processed and may be sent again
+     */
+    public static boolean onResponse(RestRequest request, RestResponse response) {
+        if (!enabled() || response.status() != 429) {
+            return false;
+        }
+        RunMetrics.increment("ratelimit.429");
+        bucket(request).tooManyRequests(retryAfterNanos(response.headers().get("retry-after")));
+        return true;
+    }
+
+    // Retry-After is either a number of seconds or an HTTP date; without one, wait one second
+    private static long retryAfterNanos(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return TimeUnit.SECONDS.toNanos(1);
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                long millis = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis();
+                return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+            } catch (DateTimeParseException ignored) {
+                return TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+    }
+
+    // Final rates of every bucket, for the run metrics report. Called from @AfterAll.
+    public static void report() {
+        new TreeMap<>(BUCKETS).values().forEach(bucket -> RunMetrics.note("Rate limit " + bucket.describe()));
+    }
+}
@@ -0,0 +1,35 @@
+package utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A transport-independent HTTP request, as built by RESTUtils.
+ *
+ * @param method        HTTP method, e.g. "GET" or "POST"
+ * @param baseURL       Scheme and host, e.g. "https://api-m.sandbox.paypal.com"
+ * @param path          Resource path, e.g. "/v1/notifications/webhooks"
+ * @param baseHeaders   Headers of the API client, from the YAML config (e.g. tranAPIHeaders)
+ * @param headers       Custom headers of this request (e.g. Authorization)
+ * @param body          Raw request body, or null
+ * @param form          Form fields sent as application/x-www-form-urlencoded, or null
+ * @param timeoutMillis Request timeout
+ */
+public record RestRequest(
+        String method,
+        String baseURL,
+        String path,
+        Map<String, String> baseHeaders,
+        Map<String, String> headers,
+        String body,
+        Map<String, String> form,
+        double timeoutMillis
+) {
+
+    // Base headers overlaid with the custom headers of this request
+    public Map<String, String> allHeaders() {
+        Map<String, String> all = new LinkedHashMap<>(baseHeaders);
+        all.putAll(headers);
+        return all;
+    }
+}
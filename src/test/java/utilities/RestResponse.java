@@ -0,0 +1,62 @@
+package utilities;
+
+import com.jayway.jsonpath.DocumentContext;
+
+import java.util.Map;
+
+/**
+ * A transport-independent HTTP response. The body is read eagerly, so it stays available
+ * after the underlying connection or request context has been reused.
+ */
+public class RestResponse {
+
+    private final int status;
+    private final String statusText;
+    private final String body;
+    private final Map<String, String> headers;
+
+    // Parsed body, created on first JsonPath query and kept as long as this response is
+    private volatile DocumentContext document;
+
+    public RestResponse(int status, String statusText, String body, Map<String, String> headers) {
+        this.status = status;
+        this.statusText = statusText;
+        this.body = body == null ? "" : body;
+        this.headers = headers;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public String statusText() {
+        return statusText;
+    }
+
+    // Response body as string (empty for responses without a body)
+    public String text() {
+        return body;
+    }
+
+    // Response headers, with lower-case names
+    public Map<String, String> headers() {
+        return headers;
+    }
+
+    // Response body parsed as JSON. Parsed once on first use, then shared by every JsonPath query on this response.
+    public DocumentContext document() {
+        DocumentContext parsed = document;
+        if (parsed == null) {
+            synchronized (this) {
+                parsed = document;
+                if (parsed == null) {
+                    parsed = JsonHelper.parse(body);
+                    document = parsed;
+                }
+            }
+        } else {
+            RunMetrics.increment("json.documents.reused");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,87 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide counters and notes collected while the suite runs.
+ * Any thread can record into it; the summary is written once at the end of the run
+ * (see Hooks.afterAll) to the console and to target/run-metrics.txt.
+ */
+public final class RunMetrics {
+
+    private static final Logger logger = Logger.getLogger(RunMetrics.class.getName());
+
+    // Sorted so that related counters (same prefix) are printed together
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+
+    // Highest value seen, e.g. the longest wait
+    private static final Map<String, LongAccumulator> MAXIMA = new ConcurrentSkipListMap<>();
+
+    // Free-form lines added to the end of the summary
+    private static final List<String> NOTES = new CopyOnWriteArrayList<>();
+
+    private RunMetrics() {
+        // utility
+    }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long get(String name) {
+        LongAdder adder = COUNTERS.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    public static void max(String name, long value) {
+        MAXIMA.computeIfAbsent(name, k -> new LongAccumulator(Math::max, Long.MIN_VALUE)).accumulate(value);
+    }
+
+    public static void note(String line) {
+        NOTES.add(line);
+    }
+
+    // Build the human-readable summary of all counters and notes
+    public static String summary() {
+        StringBuilder sb = new StringBuilder("Run metrics").append(System.lineSeparator());
+        COUNTERS.forEach((name, value) ->
+                sb.append("  ").append(name).append(" = ").append(value.sum()).append(System.lineSeparator()));
+        MAXIMA.forEach((name, value) ->
+                sb.append("  ").append(name).append(" (max) = ").append(value.get()).append(System.lineSeparator()));
+        for (String note : NOTES) {
+            sb.append("  ").append(note).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    // Print the summary and write it to target/run-metrics.txt (run-metrics-w<id>.txt for worker JVMs)
+    public static void writeReport() {
+        String summary = summary();
+        System.out.println(summary);
+        // Worker JVMs (-Dproject.dir) write next to the coordinator's report instead of overwriting it
+        String worker = System.getProperty("worker.id");
+        Path reportPath = Paths.get(System.getProperty("project.dir", System.getProperty("user.dir")), "target",
+                worker == null ? "run-metrics.txt" : "run-metrics-w" + worker + ".txt");
+        try {
+            Files.createDirectories(reportPath.getParent());
+            Files.writeString(reportPath, summary);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write run metrics to " + reportPath, e);
+        }
+    }
+}